@@ -0,0 +1,467 @@
+package io.github.btj.jvis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link DebugValueSource} over a generated program state, standing in for the JDT debug model.
+ * Every call that costs a JDWP round-trip in JDT (listing frames, variables or fields, getting a
+ * variable's value, a value string or an array's length or elements) waits {@link #latencyNanos}
+ * and is counted in {@link #roundTrips}; type names and ids are known locally, as in JDT.
+ * With {@link #batchedFields}, an object's fields come with their values in one round-trip, as
+ * they do when the plugin can read them through JDI.
+ */
+class FakeValueSource implements DebugValueSource {
+
+	final long latencyNanos;
+	final boolean batchedFields;
+	final AtomicLong roundTrips = new AtomicLong();
+	final List<FakeTarget> targets;
+	final Random random = new Random(42);
+	long nextId = 1;
+
+	/** {@code threads} user threads each have their own frames and objects, of the given shape. */
+	FakeValueSource(HeapShape shape, int size, int threads, long latencyNanos, boolean batchedFields) {
+		this.latencyNanos = latencyNanos;
+		this.batchedFields = batchedFields;
+		List<FakeThread> threadList = new ArrayList<>();
+		for (int i = 0; i < threads; i++)
+			threadList.add(new FakeThread(i == 0 ? "main" : "worker-" + i, false, stack(shape, size)));
+		threadList.add(new FakeThread("Reference Handler", true, Collections.emptyList()));
+		targets = Collections.singletonList(new FakeTarget(threadList));
+	}
+
+	/** Returns the frames of a thread, innermost first. */
+	List<FakeFrame> stack(HeapShape shape, int size) {
+		List<FakeFrame> frames = new ArrayList<>();
+		switch (shape) {
+		case DEEP_RECURSION:
+			for (int i = size - 1; i >= 0; i--) {
+				FakeObject node = object("demo.Node", field("value", primitive("" + i)), field("next", NULL));
+				frames.add(new FakeFrame("demo.Recursion", "recurse", Arrays.asList("int", "demo.Node"), 10 + i % 5,
+						field("depth", primitive("" + i)), field("node", node)));
+			}
+			break;
+		case WIDE_ARRAYS: {
+			List<DebugValue> ints = new ArrayList<>();
+			List<DebugValue> boxes = new ArrayList<>();
+			for (int i = 0; i < size; i++) {
+				ints.add(primitive("" + i));
+				boxes.add(box(i));
+			}
+			List<DebugValue> rows = new ArrayList<>();
+			for (int i = 0; i < size / 10; i++) {
+				List<DebugValue> row = new ArrayList<>();
+				for (int j = 0; j < 10; j++)
+					row.add(primitive("" + (i * 10 + j)));
+				rows.add(array("int[]", row));
+			}
+			frames.add(main(field("ints", array("int[]", ints)), field("boxes", array("java.lang.Integer[]", boxes)), field("rows", array("int[][]", rows))));
+			break;
+		}
+		case LINKED_LIST: {
+			FakeObject list = object("java.util.LinkedList");
+			FakeObject previous = null;
+			FakeObject first = null;
+			for (int i = 0; i < size; i++) {
+				FakeObject node = object("java.util.LinkedList$Node", field("item", box(i)), field("next", NULL), field("prev", previous == null ? NULL : previous));
+				if (previous == null)
+					first = node;
+				else
+					previous.fields.set(1, field("next", node));
+				previous = node;
+			}
+			list.fields.addAll(Arrays.asList(field("size", primitive("" + size)), field("first", first == null ? NULL : first), field("last", previous == null ? NULL : previous)));
+			frames.add(main(field("list", list)));
+			break;
+		}
+		case CYCLIC_GRAPH: {
+			List<FakeObject> vertices = new ArrayList<>();
+			for (int i = 0; i < size; i++)
+				vertices.add(object("demo.Vertex", field("label", primitive("" + i))));
+			for (FakeObject vertex : vertices)
+				for (int j = 0; j < 4; j++)
+					vertex.fields.add(field("edge" + j, vertices.get(random.nextInt(size))));
+			frames.add(main(field("root", vertices.get(0))));
+			break;
+		}
+		case HASH_MAP: {
+			int capacity = Integer.highestOneBit(Math.max(1, size * 4 / 3)) << 1;
+			List<DebugValue> table = new ArrayList<>(Collections.nCopies(capacity, NULL));
+			for (int i = 0; i < size; i++) {
+				String key = "key" + i;
+				int bucket = (key.hashCode() ^ key.hashCode() >>> 16) & (capacity - 1);
+				table.set(bucket, object("java.util.HashMap$Node", field("hash", primitive("" + key.hashCode())), field("key", string(key)), field("value", box(i)), field("next", table.get(bucket))));
+			}
+			FakeObject map = object("java.util.HashMap", field("table", array("java.util.HashMap$Node[]", table)), field("size", primitive("" + size)), field("modCount", primitive("" + size)), field("threshold", primitive("" + capacity * 3 / 4)), field("loadFactor", primitive("0.75")));
+			frames.add(main(field("map", map)));
+			break;
+		}
+		}
+		// Innermost first, with the return value pseudo-variable first in the active frame
+		Collections.reverse(frames);
+		frames.get(0).variables.add(0, new FakeVariable("no method return value", "void", NULL, false));
+		return frames;
+	}
+
+	/** Lets the main thread take a step: its frames have to be read again. */
+	void step() {
+		targets.get(0).threads.get(0).changeCount++;
+	}
+
+	void roundTrip() {
+		roundTrips.incrementAndGet();
+		if (latencyNanos > 0)
+			LockSupport.parkNanos(latencyNanos);
+	}
+
+	@Override
+	public List<FakeTarget> getTargets() {
+		return targets;
+	}
+
+	FakeFrame main(FakeVariable... locals) {
+		return new FakeFrame("demo.Main", "main", Arrays.asList("java.lang.String[]"), 42, locals);
+	}
+
+	FakeVariable field(String name, DebugValue value) {
+		return new FakeVariable(name, value instanceof FakeObject ? ((FakeObject)value).typeName : "int", value, false);
+	}
+
+	FakePrimitive primitive(String valueString) {
+		return new FakePrimitive(valueString);
+	}
+
+	final FakePrimitive NULL = new FakePrimitive("null");
+
+	FakeObject object(String typeName, FakeVariable... fields) {
+		return new FakeObject(nextId++, typeName, new ArrayList<>(Arrays.asList(fields)), null, null);
+	}
+
+	FakeObject array(String typeName, List<DebugValue> elements) {
+		return new FakeObject(nextId++, typeName, null, elements, null);
+	}
+
+	FakeObject box(int value) {
+		return object("java.lang.Integer", field("value", primitive("" + value)));
+	}
+
+	FakeObject string(String value) {
+		return new FakeObject(nextId++, "java.lang.String", new ArrayList<>(), null, value);
+	}
+
+	static class FakeTarget implements DebugTarget {
+
+		final List<FakeThread> threads;
+
+		FakeTarget(List<FakeThread> threads) {
+			this.threads = threads;
+		}
+
+		@Override
+		public Object getKey() {
+			return this;
+		}
+
+		@Override
+		public String getName() {
+			return "demo.Main";
+		}
+
+		@Override
+		public List<FakeThread> getThreads() {
+			return threads;
+		}
+
+	}
+
+	class FakeThread implements DebugThread {
+
+		final String name;
+		final boolean system;
+		final List<FakeFrame> frames;
+		volatile long changeCount;
+
+		FakeThread(String name, boolean system, List<FakeFrame> frames) {
+			this.name = name;
+			this.system = system;
+			this.frames = frames;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public Object getKey() {
+			return this;
+		}
+
+		@Override
+		public boolean isSystemThread() {
+			return system;
+		}
+
+		@Override
+		public long getChangeCount() {
+			return changeCount;
+		}
+
+		@Override
+		public List<FakeFrame> getFrames() {
+			roundTrip();
+			return frames;
+		}
+
+	}
+
+	class FakeFrame implements DebugFrame {
+
+		final String declaringTypeName;
+		final String methodName;
+		final List<String> argumentTypeNames;
+		final int lineNumber;
+		final List<FakeVariable> variables;
+
+		FakeFrame(String declaringTypeName, String methodName, List<String> argumentTypeNames, int lineNumber, FakeVariable... variables) {
+			this.declaringTypeName = declaringTypeName;
+			this.methodName = methodName;
+			this.argumentTypeNames = argumentTypeNames;
+			this.lineNumber = lineNumber;
+			this.variables = new ArrayList<>(Arrays.asList(variables));
+		}
+
+		@Override
+		public Object getKey() {
+			return this;
+		}
+
+		@Override
+		public String getDeclaringTypeName() {
+			return declaringTypeName;
+		}
+
+		@Override
+		public String getMethodName() {
+			return methodName;
+		}
+
+		@Override
+		public List<String> getArgumentTypeNames() {
+			return argumentTypeNames;
+		}
+
+		@Override
+		public String getName() {
+			return methodName;
+		}
+
+		@Override
+		public int getLineNumber() {
+			return lineNumber;
+		}
+
+		@Override
+		public List<FakeVariable> getVariables() {
+			roundTrip();
+			return variables;
+		}
+
+	}
+
+	class FakeVariable implements DebugVariable {
+
+		final String name;
+		final String referenceTypeName;
+		final DebugValue value;
+		final boolean isStatic;
+
+		FakeVariable(String name, String referenceTypeName, DebugValue value, boolean isStatic) {
+			this.name = name;
+			this.referenceTypeName = referenceTypeName;
+			this.value = value;
+			this.isStatic = isStatic;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean isStatic() {
+			return isStatic;
+		}
+
+		@Override
+		public String getReferenceTypeName() {
+			return referenceTypeName;
+		}
+
+		@Override
+		public DebugValue getValue() {
+			roundTrip();
+			return value;
+		}
+
+	}
+
+	/** A field whose value was read together with those of the object's other fields. */
+	class FakeField implements DebugVariable {
+
+		final FakeVariable field;
+
+		FakeField(FakeVariable field) {
+			this.field = field;
+		}
+
+		@Override
+		public String getName() {
+			return field.name;
+		}
+
+		@Override
+		public boolean isStatic() {
+			return false;
+		}
+
+		@Override
+		public String getReferenceTypeName() {
+			return field.referenceTypeName;
+		}
+
+		@Override
+		public DebugValue getValue() {
+			return field.value;
+		}
+
+	}
+
+	class FakePrimitive implements DebugValue {
+
+		final String valueString;
+
+		FakePrimitive(String valueString) {
+			this.valueString = valueString;
+		}
+
+		@Override
+		public boolean isObject() {
+			return false;
+		}
+
+		@Override
+		public long getUniqueId() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String getTypeName() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String getValueString() {
+			roundTrip();
+			return valueString;
+		}
+
+		@Override
+		public boolean isArray() {
+			return false;
+		}
+
+		@Override
+		public int getArrayLength() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public List<DebugValue> getArrayElements(int offset, int count) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public List<FakeVariable> getFields() {
+			return Collections.emptyList();
+		}
+
+	}
+
+	class FakeObject implements DebugValue {
+
+		final long id;
+		final String typeName;
+		/** {@code null} for arrays. */
+		final List<FakeVariable> fields;
+		/** {@code null} unless this is an array. */
+		final List<DebugValue> elements;
+		/** {@code null} unless this is a string. */
+		final String stringValue;
+
+		FakeObject(long id, String typeName, List<FakeVariable> fields, List<DebugValue> elements, String stringValue) {
+			this.id = id;
+			this.typeName = typeName;
+			this.fields = fields;
+			this.elements = elements;
+			this.stringValue = stringValue;
+		}
+
+		@Override
+		public boolean isObject() {
+			return true;
+		}
+
+		@Override
+		public long getUniqueId() {
+			return id;
+		}
+
+		@Override
+		public String getTypeName() {
+			return typeName;
+		}
+
+		@Override
+		public String getValueString() {
+			roundTrip();
+			return stringValue != null ? stringValue : typeName + " (id=" + id + ")";
+		}
+
+		@Override
+		public boolean isArray() {
+			return elements != null;
+		}
+
+		@Override
+		public int getArrayLength() {
+			roundTrip();
+			return elements.size();
+		}
+
+		@Override
+		public List<DebugValue> getArrayElements(int offset, int count) {
+			roundTrip();
+			return elements.subList(offset, offset + count);
+		}
+
+		@Override
+		public List<? extends DebugVariable> getFields() {
+			roundTrip();
+			if (!batchedFields)
+				return fields;
+			List<FakeField> result = new ArrayList<>(fields.size());
+			for (FakeVariable field : fields)
+				result.add(new FakeField(field));
+			return result;
+		}
+
+	}
+
+}
@@ -0,0 +1,40 @@
+package io.github.btj.jvis;
+
+/**
+ * A {@link MachineView} that shows nothing, with a {@link TextMeasurer} that assumes a fixed-width font.
+ */
+class FakeView implements MachineView, TextMeasurer {
+
+	static final int CHAR_WIDTH = 7;
+	static final int LINE_HEIGHT = 15;
+
+	long redraws;
+
+	@Override
+	public Extent stringExtent(String text) {
+		return new Extent(text.length() * CHAR_WIDTH, LINE_HEIGHT);
+	}
+
+	@Override
+	public void redraw() {
+		redraws++;
+	}
+
+	@Override
+	public void redraw(int x, int y, int width, int height) {
+		redraws++;
+	}
+
+	@Override
+	public void beginDrag(MachineModel.JavaObject object) {
+	}
+
+	@Override
+	public void expand(long id) {
+	}
+
+	@Override
+	public void reread(long id) {
+	}
+
+}
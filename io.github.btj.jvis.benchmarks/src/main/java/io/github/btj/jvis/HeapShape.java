@@ -0,0 +1,18 @@
+package io.github.btj.jvis;
+
+/**
+ * The kinds of program state a {@link FakeValueSource} can generate. Public, since JMH needs to set
+ * benchmark parameters of this type.
+ */
+public enum HeapShape {
+	/** A call stack of {@code size} frames, each with a local pointing to an object of its own. */
+	DEEP_RECURSION,
+	/** An {@code int[size]}, an {@code Integer[size]} and an array of {@code size / 10} arrays. */
+	WIDE_ARRAYS,
+	/** A doubly linked list of {@code size} nodes. */
+	LINKED_LIST,
+	/** {@code size} vertices with four edges each, to random vertices. */
+	CYCLIC_GRAPH,
+	/** A {@code HashMap} of {@code size} string keys to boxed integers. */
+	HASH_MAP
+}
@@ -0,0 +1,90 @@
+package io.github.btj.jvis;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures turning snapshots into laid-out elements: arranging the heap in layers, building the call
+ * stacks, placing the objects on the heap, and fitting the columns of the tables to their contents.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LayoutBenchmark {
+
+	@Param({"DEEP_RECURSION", "WIDE_ARRAYS", "LINKED_LIST", "CYCLIC_GRAPH", "HASH_MAP"})
+	HeapShape shape;
+
+	@Param({"100", "1000"})
+	int size;
+
+	final FakeView view = new FakeView();
+	Snapshot snapshot;
+	/** The same state as {@link #snapshot}, one step later. */
+	Snapshot nextSnapshot;
+	MachineModel model;
+
+	@Setup(Level.Trial)
+	public void setUp() throws DebugReadException {
+		FakeValueSource source = new FakeValueSource(shape, size, 1, 0, false);
+		snapshot = new SnapshotBuilder(source, new SnapshotContext(), null).build();
+		nextSnapshot = new Snapshot(snapshot.step + 1, snapshot.messages, snapshot.threads, snapshot.objects, snapshot.layout);
+		model = newModel();
+		model.setSnapshot(snapshot);
+	}
+
+	MachineModel newModel() {
+		return new MachineModel(view, view, new SnapshotContext());
+	}
+
+	/** Lays out a snapshot from scratch, as when the view opens. */
+	@Benchmark
+	public MachineModel layOutFirstSnapshot() {
+		MachineModel model = newModel();
+		model.setSnapshot(snapshot);
+		return model;
+	}
+
+	/** Lays out a snapshot in which nothing changed, as after a step that only moved the line number. */
+	@Benchmark
+	public MachineModel layOutUnchangedSnapshot() {
+		model.setSnapshot(model.snapshot == snapshot ? nextSnapshot : snapshot);
+		return model;
+	}
+
+	/** Orders the layers of the heap, which the snapshot job does off the UI thread. */
+	@Benchmark
+	public HeapLayout computeHeapLayout() {
+		return HeapLayout.compute(snapshot.threads, snapshot.objects, null);
+	}
+
+	/** Fits the columns of the call stack and of every object to their contents. */
+	@Benchmark
+	public int fitColumns() {
+		model.stackVariablesTable.updateNamesWidth();
+		model.stackVariablesTable.updateValuesWidth();
+		int[] width = {model.stackVariablesTable.valuesWidth};
+		model.heap.objects.forEachValue(object -> {
+			object.table.updateNamesWidth();
+			object.table.updateValuesWidth();
+			width[0] += object.table.valuesWidth;
+		});
+		return width[0];
+	}
+
+}
@@ -0,0 +1,105 @@
+package io.github.btj.jvis;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building snapshots, which is dominated by round-trips to the target VM once these have
+ * any latency. Besides the time, look at the {@code roundTrips} per {@code snapshots}, which JMH
+ * reports next to it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+	@Param({"DEEP_RECURSION", "WIDE_ARRAYS", "LINKED_LIST", "CYCLIC_GRAPH", "HASH_MAP"})
+	HeapShape shape;
+
+	@Param({"100", "1000"})
+	int size;
+
+	/** Number of user threads, each with its own stack and objects. */
+	@Param({"1", "8"})
+	int threads;
+
+	/** Simulated latency of a JDWP round-trip. */
+	@Param({"0", "100"})
+	int latencyMicros;
+
+	/** Whether an object's field values are read in one round-trip. */
+	@Param({"false", "true"})
+	boolean batchedFields;
+
+	FakeValueSource source;
+	SnapshotContext context;
+	Snapshot previous;
+
+	/** Reported by JMH as totals per iteration. */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Counters {
+
+		public long roundTrips;
+		public long snapshots;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			roundTrips = 0;
+			snapshots = 0;
+		}
+
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws DebugReadException {
+		source = new FakeValueSource(shape, size, threads, TimeUnit.MICROSECONDS.toNanos(latencyMicros), batchedFields);
+		context = new SnapshotContext();
+		previous = new SnapshotBuilder(source, context, null).build();
+		source.roundTrips.set(0);
+	}
+
+	/** Counts the round-trips of the snapshot just built. */
+	void count(Counters counters) {
+		counters.snapshots++;
+		counters.roundTrips += source.roundTrips.getAndSet(0);
+	}
+
+	/** The first snapshot after the view opens. */
+	@Benchmark
+	public Snapshot build(Counters counters) throws DebugReadException {
+		Snapshot snapshot = new SnapshotBuilder(source, new SnapshotContext(), null).build();
+		count(counters);
+		return snapshot;
+	}
+
+	/**
+	 * A snapshot after the main thread took a step, which can reuse the frames and objects of the
+	 * previous one, and the other threads altogether.
+	 */
+	@Benchmark
+	public Snapshot buildNextStep(Counters counters) throws DebugReadException {
+		source.step();
+		context.targetSuspended();
+		Snapshot snapshot = new SnapshotBuilder(source, context, previous).build();
+		count(counters);
+		return snapshot;
+	}
+
+}
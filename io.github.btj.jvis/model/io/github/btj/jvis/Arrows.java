@@ -0,0 +1,127 @@
+package io.github.btj.jvis;
+
+import java.util.Arrays;
+
+/**
+ * The arrows of a paint pass, kept in parallel arrays that are reused by the next pass,
+ * so that collecting and painting them does not allocate.
+ */
+class Arrows {
+
+	static int ARROWHEAD_LENGTH = 20;
+	static int ARROWHEAD_WIDTH = 10;
+
+	int size;
+	/** Counts the collection passes; see {@link Element#arrowPass}. */
+	int pass;
+	int[] fromX = new int[64];
+	int[] fromY = new int[64];
+	Element[] fromElements = new Element[64];
+	Element[] toElements = new Element[64];
+	/** The arrowhead computed by {@link #layOut(int)}: its tip, followed by the two corners of its base. */
+	final int[] polygon = new int[6];
+
+	void add(int fromX, int fromY, Element fromElement, Element toElement) {
+		if (size == toElements.length) {
+			this.fromX = Arrays.copyOf(this.fromX, 2 * size);
+			this.fromY = Arrays.copyOf(this.fromY, 2 * size);
+			this.fromElements = Arrays.copyOf(this.fromElements, 2 * size);
+			this.toElements = Arrays.copyOf(this.toElements, 2 * size);
+		}
+		this.fromX[size] = fromX;
+		this.fromY[size] = fromY;
+		this.fromElements[size] = fromElement;
+		this.toElements[size] = toElement;
+		size++;
+	}
+
+	/** Must be called before each collection pass. */
+	void clear() {
+		Arrays.fill(fromElements, 0, size, null);
+		Arrays.fill(toElements, 0, size, null);
+		size = 0;
+		pass++;
+	}
+
+	static int rootX(Element element, int pass) {
+		return element.arrowPass == pass ? element.arrowRootX : element.rootX();
+	}
+
+	static int rootY(Element element, int pass) {
+		return element.arrowPass == pass ? element.arrowRootY : element.rootY();
+	}
+
+	/**
+	 * Returns whether arrow {@code i} may cross the given rectangle. The arrow lies within the bounds of its
+	 * start and its target element, except for the arrowhead, which sticks out at most half its width.
+	 */
+	boolean intersects(int i, int x, int y, int width, int height) {
+		Element toElement = toElements[i];
+		int toElementX = rootX(toElement, pass);
+		int toElementY = rootY(toElement, pass);
+		int margin = ARROWHEAD_WIDTH;
+		int left = Math.min(fromX[i], toElementX) - margin;
+		int top = Math.min(fromY[i], toElementY) - margin;
+		int right = Math.max(fromX[i], toElementX + toElement.width) + margin;
+		int bottom = Math.max(fromY[i], toElementY + toElement.height) + margin;
+		return left <= x + width && x <= right && top <= y + height && y <= bottom;
+	}
+
+	/**
+	 * Computes where arrow {@code i} meets its target element, and its arrowhead, into {@link #polygon}.
+	 * Returns {@code false} if the arrow has no length.
+	 */
+	boolean layOut(int i) {
+		int fromX = this.fromX[i];
+		int fromY = this.fromY[i];
+		Element toElement = toElements[i];
+		int toX, toY;
+
+		int toElementX = rootX(toElement, pass);
+		int toElementY = rootY(toElement, pass);
+
+		if (fromX < toElementX)
+			toX = toElementX;
+		else if (fromX < toElementX + toElement.width)
+			toX = fromX;
+		else
+			toX = toElementX + toElement.width;
+
+		if (fromY < toElementY)
+			toY = toElementY;
+		else if (fromY < toElementY + toElement.height)
+			toY = fromY;
+		else
+			toY = toElementY + toElement.height;
+
+		if ((toX - fromX) * (toX - fromX) + (toY - fromY) * (toY - fromY) < 400) {
+			// Avoid too short an arrow; point to the furthest corner
+			if (fromX < toElementX + toElement.width / 2)
+				toX = toElementX + toElement.width;
+			else
+				toX = toElementX;
+			if (fromY < toElementY + toElement.height / 2)
+				toY = toElementY + toElement.height;
+			else
+				toY = toElementY;
+		}
+
+		int length = (int)Math.sqrt((toX - fromX) * (toX - fromX) + (toY - fromY) * (toY - fromY));
+		if (length == 0)
+			return false;
+
+		int arrowBaseX = toX + (fromX - toX) * ARROWHEAD_LENGTH / length;
+		int arrowBaseY = toY + (fromY - toY) * ARROWHEAD_LENGTH / length;
+		int vecX = (toY - fromY) * ARROWHEAD_WIDTH  / 2 / length;
+		int vecY = (fromX - toX) * ARROWHEAD_WIDTH / 2 / length;
+
+		int[] polygon = this.polygon;
+		polygon[0] = toX;
+		polygon[1] = toY;
+		polygon[2] = arrowBaseX + vecX;
+		polygon[3] = arrowBaseY + vecY;
+		polygon[4] = arrowBaseX - vecX;
+		polygon[5] = arrowBaseY - vecY;
+		return true;
+	}
+}
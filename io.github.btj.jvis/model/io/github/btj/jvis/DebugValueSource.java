@@ -0,0 +1,189 @@
+package io.github.btj.jvis;
+
+import java.util.List;
+
+/**
+ * Where a {@link SnapshotBuilder} reads the machine state from. In Eclipse, this is the JDT debug
+ * model, as adapted by {@code JdtValueSource}; keeping the builder behind this interface lets
+ * snapshot construction run, and be measured, outside of Eclipse.
+ *
+ * Any method may perform a round-trip to the target VM, so none may be called on the UI thread.
+ */
+interface DebugValueSource {
+
+	/** The debug targets; the first one is shown. */
+	List<? extends DebugTarget> getTargets() throws DebugReadException;
+
+}
+
+interface DebugTarget {
+
+	/** Identifies the target; a relaunch is another target, whose objects may have the ids of this one's. */
+	Object getKey();
+
+	String getName() throws DebugReadException;
+
+	List<? extends DebugThread> getThreads() throws DebugReadException;
+
+}
+
+interface DebugThread {
+
+	String getName() throws DebugReadException;
+
+	/** Identifies the thread across suspends. */
+	Object getKey();
+
+	boolean isSystemThread() throws DebugReadException;
+
+	/**
+	 * Increases whenever the thread may have run, or its frames may have been changed otherwise, so that
+	 * the frames of a thread whose count did not change since the previous snapshot need not be read again.
+	 */
+	long getChangeCount() throws DebugReadException;
+
+	/** Innermost first. Empty if the thread is not suspended. */
+	List<? extends DebugFrame> getFrames() throws DebugReadException;
+
+}
+
+interface DebugFrame {
+
+	/** Identifies the frame across suspends, for as long as it stays on the stack. */
+	Object getKey();
+
+	/** Returns the fully qualified name of the declaring type, or {@code null} if this is not a Java frame. */
+	String getDeclaringTypeName() throws DebugReadException;
+
+	String getMethodName() throws DebugReadException;
+
+	List<String> getArgumentTypeNames() throws DebugReadException;
+
+	/** The label of a frame that is not a Java frame. */
+	String getName() throws DebugReadException;
+
+	/** Returns a number less than 1 if unknown. */
+	int getLineNumber() throws DebugReadException;
+
+	List<? extends DebugVariable> getVariables() throws DebugReadException;
+
+}
+
+interface DebugVariable {
+
+	String getName() throws DebugReadException;
+
+	boolean isStatic() throws DebugReadException;
+
+	/** The declared type of the variable. */
+	String getReferenceTypeName() throws DebugReadException;
+
+	/** For a field, the fully qualified name of the type that declares it, or {@code null} if unknown. By default, {@code null}. */
+	default String getDeclaringTypeName() throws DebugReadException {
+		return null;
+	}
+
+	DebugValue getValue() throws DebugReadException;
+
+}
+
+interface DebugValue {
+
+	/** Whether this is a non-null reference. */
+	boolean isObject() throws DebugReadException;
+
+	/** Only defined for objects. */
+	long getUniqueId() throws DebugReadException;
+
+	/** The fully qualified name of the runtime type of an object. */
+	String getTypeName() throws DebugReadException;
+
+	String getValueString() throws DebugReadException;
+
+	/**
+	 * For a string, the first {@code maxLength} characters of its contents, and its length. Sources that can read
+	 * part of a string should, so that long strings do not have to be read whole; by default, the whole string is read.
+	 */
+	default StringPrefix getStringPrefix(int maxLength) throws DebugReadException {
+		String value = getValueString();
+		return new StringPrefix(value.length() <= maxLength ? value : value.substring(0, maxLength), value.length());
+	}
+
+	/**
+	 * For a collection or map, its size and its first {@code maxEntries} entries, as the debugger presents them;
+	 * otherwise {@code null}. By default, and for sources that cannot tell, {@code null}.
+	 */
+	default LogicalStructure getLogicalStructure(int maxEntries) throws DebugReadException {
+		return null;
+	}
+
+	/** Whether this is an enum constant. By default, and for sources that cannot tell, {@code false}. */
+	default boolean isEnumConstant() throws DebugReadException {
+		return false;
+	}
+
+	/**
+	 * For a {@code java.lang.Class} object, the name of the type it stands for, or {@code null} if it is not known;
+	 * by default, {@code null}, in which case the name is read from the object's fields if the program filled it in.
+	 */
+	default String getReflectedTypeName() throws DebugReadException {
+		return null;
+	}
+
+	boolean isArray();
+
+	int getArrayLength() throws DebugReadException;
+
+	/** Returns elements {@code offset} to {@code offset + count} of an array. */
+	List<? extends DebugValue> getArrayElements(int offset, int count) throws DebugReadException;
+
+	/** The fields of an object, static ones included. */
+	List<? extends DebugVariable> getFields() throws DebugReadException;
+
+}
+
+/** The start of the contents of a string. */
+class StringPrefix {
+
+	final String text;
+	/** The length of the whole string. */
+	final int length;
+
+	StringPrefix(String text, int length) {
+		this.text = text;
+		this.length = length;
+	}
+
+	boolean isComplete() {
+		return text.length() == length;
+	}
+
+}
+
+/** The entries of a collection or map. */
+class LogicalStructure {
+
+	/** The number of entries, of which {@link #values} holds the first ones. */
+	final int size;
+	/** For a map, the keys that go with {@link #values}; otherwise {@code null}. */
+	final List<? extends DebugValue> keys;
+	final List<? extends DebugValue> values;
+
+	LogicalStructure(int size, List<? extends DebugValue> keys, List<? extends DebugValue> values) {
+		this.size = size;
+		this.keys = keys;
+		this.values = values;
+	}
+
+}
+
+/** Reading from a {@link DebugValueSource} failed, e.g. because the target resumed or terminated. */
+class DebugReadException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	DebugReadException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
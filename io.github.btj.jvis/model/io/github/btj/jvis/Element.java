@@ -0,0 +1,199 @@
+package io.github.btj.jvis;
+
+import java.util.Iterator;
+
+enum MouseEventType { DOWN, MOVED, UP, DOUBLE_CLICKED, WHEEL };
+
+enum MouseCursor { ARROW, RESIZE_COLUMN }
+
+/**
+ * A mouse event on its way down the element tree. The coordinates are those of the element that
+ * is handling it; elements that want a different cursor set {@link #cursor}.
+ */
+class MouseInput {
+	int x, y;
+	/** The number of wheel notches. */
+	int count;
+	MouseCursor cursor;
+}
+
+class Element {
+	Element parent;
+	final Element firstChild; // Points to a dummy element
+	Element previousSibling;
+	Element nextSibling;
+	int x, y, width, height;
+	Element mouseChild;
+	boolean mouseInside;
+	/** Higher means closer to the front; only meaningful among siblings. */
+	long z;
+	static long nextZ;
+	/** Used by {@link SpatialGrid#query} to report each element only once. */
+	int queryStamp;
+	/** This element's origin in the coordinates of the root element, as of collection pass {@link #arrowPass} of the {@link Arrows}. */
+	int arrowRootX, arrowRootY;
+	int arrowPass;
+
+	final Iterable<Element> children = new Iterable<Element>() {
+
+		@Override
+		public Iterator<Element> iterator() {
+			return new Iterator<Element>() {
+				Element child = firstChild.nextSibling;
+
+				@Override
+				public boolean hasNext() {
+					return child != firstChild;
+				}
+
+				@Override
+				public Element next() {
+					Element child = this.child;
+					this.child = child.nextSibling;
+					return child;
+				}
+
+			};
+		}
+
+	};
+
+	private Element() {
+		firstChild = null;
+		nextSibling = this;
+		previousSibling = this;
+	}
+
+	Element(Element parent) {
+		if (parent != null)
+			parent.add(this);
+		firstChild = new Element();
+	}
+
+	/** Returns the x coordinate of this element's origin in the coordinates of the root element. */
+	int rootX() {
+		int x = 0;
+		for (Element e = this; e != null; e = e.parent)
+			x += e.x;
+		return x;
+	}
+
+	/** Returns the y coordinate of this element's origin in the coordinates of the root element. */
+	int rootY() {
+		int y = 0;
+		for (Element e = this; e != null; e = e.parent)
+			y += e.y;
+		return y;
+	}
+
+	void remove(Element child) {
+		if (child.parent != this) throw new AssertionError();
+		if (mouseChild == child)
+			setMouseChild(null);
+		child.parent = null;
+
+		child.nextSibling.previousSibling = child.previousSibling;
+		child.previousSibling.nextSibling = child.nextSibling;
+		child.nextSibling = child.previousSibling = null;
+	}
+
+	void add(Element child) {
+		if (child.parent != null)
+			child.parent.remove(child);
+		child.parent = this;
+
+		child.nextSibling = firstChild.nextSibling;
+		child.previousSibling = firstChild;
+		child.nextSibling.previousSibling = child;
+		child.previousSibling.nextSibling = child;
+		child.z = ++nextZ;
+	}
+
+	/**
+	 * Collects the arrows of this subtree, whether or not they are painted. {@code rootX} and {@code rootY}
+	 * are the coordinates of this element's origin in those of the root element; they are passed down and
+	 * remembered, so that neither the start nor the end of an arrow needs a walk up the tree.
+	 */
+	void collectArrows(Arrows arrows, int rootX, int rootY) {
+		arrowPass = arrows.pass;
+		arrowRootX = rootX;
+		arrowRootY = rootY;
+		for (Element child = firstChild.nextSibling; child != firstChild; child = child.nextSibling)
+			child.collectArrows(arrows, rootX + child.x, rootY + child.y);
+	}
+
+	/** Returns the topmost child that contains the given point, or {@code null}. */
+	Element findChildAt(int x, int y) {
+		for (Element child = firstChild.nextSibling; child != firstChild; child = child.nextSibling)
+			if (child.x <= x && x < child.x + child.width && child.y <= y && y < child.y + child.height)
+				return child;
+		return null;
+	}
+
+	MouseCursor getCursor(int x, int y) {
+		return MouseCursor.ARROW;
+	}
+
+	void mouseEntered() {}
+
+	private void mouseExitedInternal() {
+		if (mouseChild != null)
+			setMouseChild(null);
+		mouseInside = false;
+		mouseExited();
+	}
+
+	void mouseExited() {}
+
+	void setMouseChild(Element child) {
+		if (child != mouseChild) {
+			if (mouseChild != null)
+				mouseChild.mouseExitedInternal();
+			if (child != null) {
+				child.mouseInside = true;
+				// Move to front of z-order
+				if (child.previousSibling != firstChild) {
+					child.nextSibling.previousSibling = child.previousSibling;
+					child.previousSibling.nextSibling = child.nextSibling;
+					child.nextSibling = firstChild.nextSibling;
+					child.previousSibling = firstChild;
+					child.previousSibling.nextSibling = child;
+					child.nextSibling.previousSibling = child;
+					child.z = ++nextZ;
+				}
+				child.mouseEntered();
+			}
+			mouseChild = child;
+		}
+	}
+
+	boolean handleMouseEvent(MouseEventType type, MouseInput e) {
+		//System.out.println("Entering handleMouseEvent(" + type + ", (" + e.x + ", " + e.y + "))");
+		Element child = findChildAt(e.x, e.y);
+		if (child != null) {
+			e.x -= child.x;
+			e.y -= child.y;
+			//System.out.println("Entering child at (" + child.x + ", " + child.y + "), extent (" + child.width + ", " + child.height + ")");
+			setMouseChild(child);
+			boolean result = child.handleMouseEvent(type, e);
+			//System.out.println("Leaving child");
+			e.x += child.x;
+			e.y += child.y;
+			return result;
+		}
+		setMouseChild(null);
+		if (type == MouseEventType.MOVED) {
+			e.cursor = getCursor(e.x, e.y);
+			return true;
+		}
+		return false;
+	}
+}
+
+abstract class VariablesTable {
+	int namesWidth = 150;
+	int valuesWidth = 150;
+
+	abstract void updateNamesWidth();
+	abstract void updateValuesWidth();
+}
@@ -0,0 +1,89 @@
+package io.github.btj.jvis;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Emits each phase timed by {@link Metrics} as an {@code io.github.btj.jvis.Phase} event to Java Flight Recorder,
+ * with the phase, its duration and the growth of each counter as its fields. The plug-in runs on Java 8, which has
+ * no {@code jdk.jfr} API to compile against, so the event type is defined through {@code jdk.jfr.EventFactory}
+ * by reflection; on a VM without it, {@link #register()} does nothing.
+ */
+class FlightRecorderEvents implements Metrics.Listener {
+
+	static final String EVENT_NAME = "io.github.btj.jvis.Phase";
+
+	final Object factory;
+	final Method newEvent;
+	final Method set;
+	final Method commit;
+
+	FlightRecorderEvents() throws ReflectiveOperationException {
+		Constructor<?> newAnnotation = load("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+		Constructor<?> newField = load("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+		Class<? extends Annotation> name = load("jdk.jfr.Name").asSubclass(Annotation.class);
+		Class<? extends Annotation> label = load("jdk.jfr.Label").asSubclass(Annotation.class);
+		Class<? extends Annotation> category = load("jdk.jfr.Category").asSubclass(Annotation.class);
+		Class<? extends Annotation> timespan = load("jdk.jfr.Timespan").asSubclass(Annotation.class);
+		List<Object> annotations = Arrays.asList(
+				newAnnotation.newInstance(name, EVENT_NAME),
+				newAnnotation.newInstance(label, "JVis Phase"),
+				newAnnotation.newInstance(category, new String[] {"JVis"}));
+		List<Object> fields = new ArrayList<>();
+		fields.add(newField.newInstance(String.class, "phase", Collections.singletonList(newAnnotation.newInstance(label, "Phase"))));
+		// Not "duration", which every event has already
+		fields.add(newField.newInstance(long.class, "elapsedTime", Arrays.asList(newAnnotation.newInstance(label, "Elapsed Time"), newAnnotation.newInstance(timespan, "NANOSECONDS"))));
+		for (Metrics.Counter counter : Metrics.COUNTERS)
+			fields.add(newField.newInstance(long.class, fieldName(counter), Collections.singletonList(newAnnotation.newInstance(label, counter.label))));
+		Class<?> eventFactory = load("jdk.jfr.EventFactory");
+		factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+		newEvent = eventFactory.getMethod("newEvent");
+		Class<?> event = load("jdk.jfr.Event");
+		set = event.getMethod("set", int.class, Object.class);
+		commit = event.getMethod("commit");
+	}
+
+	/** From the system class loader, since a plug-in's class loader need not see the JDK's modules. */
+	static Class<?> load(String name) throws ClassNotFoundException {
+		return Class.forName(name, true, ClassLoader.getSystemClassLoader());
+	}
+
+	/** E.g. {@code debugCalls} for {@code DEBUG_CALLS}. */
+	static String fieldName(Metrics.Counter counter) {
+		StringBuilder result = new StringBuilder();
+		for (String word : counter.name().toLowerCase().split("_"))
+			result.append(result.length() == 0 ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+		return result.toString();
+	}
+
+	/** Returns whether this VM has Java Flight Recorder, in which case the events are emitted from now on. */
+	static boolean register() {
+		try {
+			Metrics.addListener(new FlightRecorderEvents());
+			return true;
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void phaseEnded(Metrics.Phase phase, long nanos, long[] counts) {
+		try {
+			Object event = newEvent.invoke(factory);
+			set.invoke(event, 0, phase.label);
+			set.invoke(event, 1, nanos);
+			for (int i = 0; i < counts.length; i++)
+				set.invoke(event, 2 + i, counts[i]);
+			commit.invoke(event);
+		} catch (ReflectiveOperationException e) {
+			// Emitting failed once, so it will keep failing
+			Metrics.removeListener(this);
+		}
+	}
+
+}
@@ -0,0 +1,198 @@
+package io.github.btj.jvis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Arranges the objects of a snapshot in layers for display: the objects that locals point to form
+ * the first layer, the objects they point to that are not in it the second, and so on. Each layer
+ * is then ordered to keep objects close to the objects that point to them, by sweeping the barycenter
+ * heuristic up and down the layers for as long as {@link Settings#layoutBudget} allows.
+ * Only references between adjacent layers count.
+ *
+ * Computed by the {@link SnapshotBuilder}, off the UI thread; the {@link MachineModel} only has to
+ * turn layers and ranks into coordinates, and only for objects it did not place before. Layers that
+ * did not change are shared with the layout of the previous snapshot.
+ */
+class HeapLayout {
+
+	/** Sweeps stop earlier if they stop changing the order, and usually do. */
+	static final int MAX_SWEEPS = 16;
+
+	/** The ids of the objects in each layer, in order. */
+	final List<long[]> layers;
+
+	HeapLayout(List<long[]> layers) {
+		this.layers = Collections.unmodifiableList(layers);
+	}
+
+	/** {@code previousLayout} is the layout of the previous snapshot, or {@code null}. */
+	static HeapLayout compute(List<ThreadSnapshot> threads, Map<Long, ObjectSnapshot> objects, HeapLayout previousLayout) {
+		long deadline = System.nanoTime() + Settings.layoutBudget * 1_000_000L;
+		int n = objects.size();
+		long[] ids = new long[n];
+		LongObjectMap<Integer> indices = new LongObjectMap<>(n);
+		int i = 0;
+		for (long id : objects.keySet()) {
+			ids[i] = id;
+			indices.put(id, i++);
+		}
+		int[][] children = new int[n][];
+		for (ObjectSnapshot object : objects.values()) {
+			int index = indices.get(object.id);
+			children[index] = object.isStub() ? new int[0] : references(object.fields, indices);
+		}
+
+		// Assign layers breadth-first from the locals
+		int[] layerOf = new int[n];
+		Arrays.fill(layerOf, -1);
+		List<int[]> layers = new ArrayList<>();
+		int[] layer = new int[n];
+		int size = 0;
+		for (ThreadSnapshot thread : threads) {
+			for (FrameSnapshot frame : thread.frames) {
+				for (int root : references(frame.locals, indices))
+					if (layerOf[root] < 0) {
+						layerOf[root] = 0;
+						layer[size++] = root;
+					}
+				if (frame.returnValue != null)
+					for (int root : references(Collections.singletonList(frame.returnValue), indices))
+						if (layerOf[root] < 0) {
+							layerOf[root] = 0;
+							layer[size++] = root;
+						}
+			}
+		}
+		int placed = size;
+		while (size > 0) {
+			layers.add(Arrays.copyOf(layer, size));
+			int[] previous = layers.get(layers.size() - 1);
+			size = 0;
+			for (int parent : previous)
+				for (int child : children[parent])
+					if (layerOf[child] < 0) {
+						layerOf[child] = layers.size();
+						layer[size++] = child;
+					}
+			placed += size;
+		}
+		if (placed < n) {
+			// Objects the locals no longer reach, e.g. those kept by an expansion of an older snapshot
+			size = 0;
+			for (int j = 0; j < n; j++)
+				if (layerOf[j] < 0) {
+					layerOf[j] = layers.size();
+					layer[size++] = j;
+				}
+			layers.add(Arrays.copyOf(layer, size));
+		}
+
+		// Order the layers below the first one, which stays in the order of the frames
+		int[] rank = new int[n];
+		for (int[] objectsInLayer : layers)
+			for (int j = 0; j < objectsInLayer.length; j++)
+				rank[objectsInLayer[j]] = j;
+		int[][] below = new int[n][];
+		for (int j = 0; j < n; j++) {
+			int[] adjacent = new int[children[j].length];
+			int count = 0;
+			for (int child : children[j])
+				if (layerOf[child] == layerOf[j] + 1)
+					adjacent[count++] = child;
+			below[j] = Arrays.copyOf(adjacent, count);
+		}
+		int[][] above = invert(below);
+		double[] keys = new double[n];
+		boolean changed = true;
+		for (int sweep = 0; changed && sweep < MAX_SWEEPS && (sweep == 0 || System.nanoTime() < deadline); sweep++) {
+			changed = false;
+			for (int l = 1; l < layers.size(); l++)
+				changed |= order(layers.get(l), above, rank, keys);
+			for (int l = layers.size() - 2; l >= 1; l--)
+				changed |= order(layers.get(l), below, rank, keys);
+		}
+
+		List<long[]> result = new ArrayList<>(layers.size());
+		boolean same = previousLayout != null && previousLayout.layers.size() == layers.size();
+		for (int l = 0; l < layers.size(); l++) {
+			int[] objectsInLayer = layers.get(l);
+			long[] layerIds = new long[objectsInLayer.length];
+			for (int j = 0; j < objectsInLayer.length; j++)
+				layerIds[j] = ids[objectsInLayer[j]];
+			if (previousLayout != null && l < previousLayout.layers.size() && Arrays.equals(layerIds, previousLayout.layers.get(l)))
+				layerIds = previousLayout.layers.get(l);
+			else
+				same = false;
+			result.add(layerIds);
+		}
+		return same ? previousLayout : new HeapLayout(result);
+	}
+
+	static int[] references(List<VariableSnapshot> variables, LongObjectMap<Integer> indices) {
+		int[] result = new int[variables.size()];
+		int size = 0;
+		for (VariableSnapshot variable : variables) {
+			if (variable.reference == VariableSnapshot.NO_OBJECT)
+				continue;
+			Integer index = indices.get(variable.reference);
+			if (index != null)
+				result[size++] = index;
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/** Given the objects each object points to, returns the objects that point to each object. */
+	static int[][] invert(int[][] children) {
+		int n = children.length;
+		int[] counts = new int[n];
+		for (int parent = 0; parent < n; parent++)
+			for (int child : children[parent])
+				counts[child]++;
+		int[][] parents = new int[n][];
+		for (int child = 0; child < n; child++)
+			parents[child] = new int[counts[child]];
+		Arrays.fill(counts, 0);
+		for (int parent = 0; parent < n; parent++)
+			for (int child : children[parent])
+				parents[child][counts[child]++] = parent;
+		return parents;
+	}
+
+	/**
+	 * Sorts the given layer by the mean rank of each object's neighbors in the adjacent layer. The sort
+	 * is stable, and objects without neighbors are keyed by their own rank, so they roughly keep their
+	 * place. Updates the ranks; returns {@code false} if nothing moved.
+	 */
+	static boolean order(int[] layer, int[][] neighbors, int[] rank, double[] keys) {
+		for (int object : layer) {
+			int[] objectNeighbors = neighbors[object];
+			if (objectNeighbors.length == 0) {
+				keys[object] = rank[object];
+				continue;
+			}
+			long sum = 0;
+			for (int neighbor : objectNeighbors)
+				sum += rank[neighbor];
+			keys[object] = (double)sum / objectNeighbors.length;
+		}
+		Integer[] sorted = new Integer[layer.length];
+		for (int j = 0; j < layer.length; j++)
+			sorted[j] = layer[j];
+		Arrays.sort(sorted, (a, b) -> Double.compare(keys[a], keys[b]));
+		boolean changed = false;
+		for (int j = 0; j < layer.length; j++) {
+			if (layer[j] != sorted[j]) {
+				layer[j] = sorted[j];
+				changed = true;
+			}
+		}
+		for (int j = 0; j < layer.length; j++)
+			rank[layer[j]] = j;
+		return changed;
+	}
+
+}
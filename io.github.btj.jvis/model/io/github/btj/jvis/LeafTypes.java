@@ -0,0 +1,204 @@
+package io.github.btj.jvis;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The value-like types whose objects are shown inline in the variables that reference them, as their
+ * value, like strings are, instead of as objects of their own in the heap: the types listed in
+ * {@link Settings#leafTypes} and, unless turned off, enums. The value of a leaf is computed from its
+ * fields, so no code runs in the target; a leaf whose fields are not as expected is shown as an object.
+ */
+class LeafTypes {
+
+	static final Set<String> BOXES = new HashSet<>(Arrays.asList("java.lang.Boolean", "java.lang.Byte", "java.lang.Character",
+			"java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double"));
+	/** Immutable types whose value is rebuilt here from their fields and shown as by their {@code toString}; see {@link #toValue}. */
+	static final Set<String> VALUES = new HashSet<>(Arrays.asList("java.math.BigInteger", "java.math.BigDecimal", "java.util.UUID",
+			"java.time.LocalDate", "java.time.LocalTime", "java.time.LocalDateTime", "java.time.Instant", "java.time.Duration", "java.time.Period"));
+	/** Leaves nested deeper than this in a leaf are left out of its value. */
+	static final int MAX_NESTING = 2;
+
+	static final LeafTypes configured = new LeafTypes(Settings.leafTypes);
+
+	final Set<String> names = new HashSet<>();
+	/** Package names, each followed by a period. */
+	final List<String> packages = new ArrayList<>();
+
+	/** {@code list} is as described at {@link Settings#leafTypes}. */
+	LeafTypes(String list) {
+		for (String entry : list.split(",")) {
+			entry = entry.trim();
+			if (entry.endsWith(".*"))
+				packages.add(entry.substring(0, entry.length() - 1));
+			else if (!entry.isEmpty())
+				names.add(entry);
+		}
+	}
+
+	boolean contains(String typeName) {
+		if (names.contains(typeName))
+			return true;
+		for (String name : packages)
+			if (typeName.startsWith(name))
+				return true;
+		return false;
+	}
+
+	/** Whether the value of a leaf of the given type never changes, so that it can be kept by id, like that of a string. */
+	static boolean isImmutable(String typeName, boolean isEnum) {
+		return isEnum || BOXES.contains(typeName) || typeName.equals("java.lang.Class") || VALUES.contains(typeName);
+	}
+
+	/**
+	 * Returns the value of a leaf, e.g. {@code 42}, {@code RED} or {@code 1.50}, or {@code null} if its fields are not as
+	 * expected. The value of a leaf of a type that is not known here lists its fields, e.g. {@code {x=1, y=2}}.
+	 */
+	String valueString(DebugValue value, String typeName, boolean isEnum, int nesting) throws DebugReadException {
+		if (typeName.equals("java.lang.Class")) {
+			String name = value.getReflectedTypeName();
+			if (name != null)
+				return name;
+		}
+		try {
+			if (isEnum)
+				return contents(enumName(value));
+			Map<String, DebugValue> fields = fieldsOf(value);
+			if (typeName.equals("java.lang.Class")) {
+				// The name is only filled in once the program asked for it
+				DebugValue name = fields.get("name");
+				return name.isObject() ? contents(name) : null;
+			}
+			if (BOXES.contains(typeName))
+				return fields.get("value").getValueString();
+			if (VALUES.contains(typeName))
+				return toValue(typeName, fields).toString();
+			StringBuilder result = new StringBuilder("{");
+			for (Map.Entry<String, DebugValue> field : fields.entrySet()) {
+				if (result.length() > 1)
+					result.append(", ");
+				result.append(field.getKey()).append('=').append(fieldValueString(field.getValue(), nesting));
+			}
+			return result.append('}').toString();
+		} catch (NullPointerException | IllegalArgumentException | DateTimeException e) {
+			// Not laid out as in the JDKs we know; a NumberFormatException is an IllegalArgumentException
+			return null;
+		}
+	}
+
+	/** Returns the object of one of the {@link #VALUES} types that has the given fields, rebuilt in this VM. */
+	static Object toValue(String typeName, Map<String, DebugValue> fields) throws DebugReadException {
+		switch (typeName) {
+		case "java.math.BigInteger":
+			return toBigInteger(fields);
+		case "java.math.BigDecimal":
+			int scale = intField(fields, "scale");
+			long compact = longField(fields, "intCompact");
+			// Long.MIN_VALUE means the unscaled value is too large for a long, and is in intVal instead
+			if (compact != Long.MIN_VALUE)
+				return BigDecimal.valueOf(compact, scale);
+			return new BigDecimal(toBigInteger(fieldsOf(fields.get("intVal"))), scale);
+		case "java.util.UUID":
+			return new UUID(longField(fields, "mostSigBits"), longField(fields, "leastSigBits"));
+		case "java.time.LocalDate":
+			return LocalDate.of(intField(fields, "year"), intField(fields, "month"), intField(fields, "day"));
+		case "java.time.LocalTime":
+			return LocalTime.of(intField(fields, "hour"), intField(fields, "minute"), intField(fields, "second"), intField(fields, "nano"));
+		case "java.time.LocalDateTime":
+			return LocalDateTime.of((LocalDate)toValue("java.time.LocalDate", fieldsOf(fields.get("date"))), (LocalTime)toValue("java.time.LocalTime", fieldsOf(fields.get("time"))));
+		case "java.time.Instant":
+			return Instant.ofEpochSecond(longField(fields, "seconds"), intField(fields, "nanos"));
+		case "java.time.Duration":
+			return Duration.ofSeconds(longField(fields, "seconds"), intField(fields, "nanos"));
+		case "java.time.Period":
+			return Period.of(intField(fields, "years"), intField(fields, "months"), intField(fields, "days"));
+		default:
+			throw new IllegalArgumentException(typeName);
+		}
+	}
+
+	static int intField(Map<String, DebugValue> fields, String name) throws DebugReadException {
+		return Integer.parseInt(fields.get(name).getValueString());
+	}
+
+	static long longField(Map<String, DebugValue> fields, String name) throws DebugReadException {
+		return Long.parseLong(fields.get(name).getValueString());
+	}
+
+	/**
+	 * Returns the {@code name} field that {@code java.lang.Enum} declares, which holds the name of the constant; the enum
+	 * may declare a field of that name as well. If the source does not tell who declares a field, takes the last one, since
+	 * the fields of a class come before those of its superclasses.
+	 */
+	static DebugValue enumName(DebugValue constant) throws DebugReadException {
+		DebugValue result = null;
+		for (DebugVariable field : constant.getFields()) {
+			if (field.isStatic() || !field.getName().equals("name"))
+				continue;
+			String declaringTypeName = field.getDeclaringTypeName();
+			if ("java.lang.Enum".equals(declaringTypeName))
+				return field.getValue();
+			if (declaringTypeName == null)
+				result = field.getValue();
+		}
+		return result;
+	}
+
+	String fieldValueString(DebugValue value, int nesting) throws DebugReadException {
+		if (!value.isObject())
+			return value.getValueString();
+		String typeName = value.getTypeName();
+		if (typeName.equals("java.lang.String"))
+			return '"' + contents(value) + '"';
+		if (nesting < MAX_NESTING) {
+			boolean isEnum = Settings.leafEnums && value.isEnumConstant();
+			if (isEnum || contains(typeName)) {
+				String valueString = valueString(value, typeName, isEnum, nesting + 1);
+				if (valueString != null)
+					return valueString;
+			}
+		}
+		return SnapshotBuilder.chopPackageName(typeName) + " (id=" + value.getUniqueId() + ")";
+	}
+
+	/** Returns the contents of a string, or the start of them if it is long. */
+	static String contents(DebugValue string) throws DebugReadException {
+		StringPrefix prefix = string.getStringPrefix(Settings.maxStringLength);
+		return prefix.isComplete() ? prefix.text : prefix.text + "\u2026";
+	}
+
+	/** Returns the instance fields of an object by name; of fields with the same name, the first is kept. */
+	static Map<String, DebugValue> fieldsOf(DebugValue value) throws DebugReadException {
+		Map<String, DebugValue> fields = new LinkedHashMap<>();
+		for (DebugVariable field : value.getFields())
+			if (!field.isStatic())
+				fields.putIfAbsent(field.getName(), field.getValue());
+		return fields;
+	}
+
+	/** From the {@code signum} and the big-endian {@code mag} words of a {@code java.math.BigInteger}. */
+	static BigInteger toBigInteger(Map<String, DebugValue> fields) throws DebugReadException {
+		int signum = intField(fields, "signum");
+		DebugValue magnitude = fields.get("mag");
+		BigInteger result = BigInteger.ZERO;
+		for (DebugValue word : magnitude.getArrayElements(0, magnitude.getArrayLength()))
+			result = result.shiftLeft(32).or(BigInteger.valueOf(Integer.parseInt(word.getValueString()) & 0xFFFFFFFFL));
+		return signum < 0 ? result.negate() : result;
+	}
+
+}
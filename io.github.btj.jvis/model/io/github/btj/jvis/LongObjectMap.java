@@ -0,0 +1,126 @@
+package io.github.btj.jvis;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A hash map from primitive {@code long} keys to non-null values, using open addressing with
+ * linear probing. Unlike a {@code HashMap<Long, V>}, lookups do not box the key and entries are
+ * not separate objects, so lookups allocate nothing.
+ */
+class LongObjectMap<V> {
+
+	static final float MAX_LOAD = 0.5f;
+
+	long[] keys;
+	Object[] values; // null means the slot is free
+	int size;
+
+	LongObjectMap() {
+		this(16);
+	}
+
+	LongObjectMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, (int)(expectedSize / MAX_LOAD)) - 1) << 1;
+		keys = new long[capacity];
+		values = new Object[capacity];
+	}
+
+	static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	int slotOf(long key) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (values[slot] != null && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(long key) {
+		return (V)values[slotOf(key)];
+	}
+
+	boolean containsKey(long key) {
+		return values[slotOf(key)] != null;
+	}
+
+	/** Returns the previous value, or {@code null}. */
+	@SuppressWarnings("unchecked")
+	V put(long key, V value) {
+		if (value == null)
+			throw new NullPointerException();
+		int slot = slotOf(key);
+		V old = (V)values[slot];
+		keys[slot] = key;
+		values[slot] = value;
+		if (old == null && ++size > keys.length * MAX_LOAD)
+			resize(keys.length * 2);
+		return old;
+	}
+
+	/** Returns the removed value, or {@code null}. */
+	@SuppressWarnings("unchecked")
+	V remove(long key) {
+		int mask = keys.length - 1;
+		int slot = slotOf(key);
+		V old = (V)values[slot];
+		if (old == null)
+			return null;
+		values[slot] = null;
+		size--;
+		// Shift back the entries that probed past the freed slot
+		int free = slot;
+		for (int i = (slot + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+			int home = hash(keys[i]) & mask;
+			if (((i - home) & mask) >= ((i - free) & mask)) {
+				keys[free] = keys[i];
+				values[free] = values[i];
+				values[i] = null;
+				free = i;
+			}
+		}
+		return old;
+	}
+
+	void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	void forEachValue(Consumer<? super V> action) {
+		for (Object value : values)
+			if (value != null)
+				action.accept((V)value);
+	}
+
+	void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (values[slot] != null)
+					slot = (slot + 1) & mask;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+}
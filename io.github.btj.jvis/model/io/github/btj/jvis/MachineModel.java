@@ -0,0 +1,927 @@
+package io.github.btj.jvis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The elements that show a {@link Snapshot}: a call stack per thread and a heap of objects shared by them, and their layout.
+ * How they are painted is up to the {@link MachineView}; text is measured by a {@link TextMeasurer},
+ * so that the model can be built and laid out without a display.
+ *
+ * Only to be used on the UI thread, except for reading {@link #snapshot}.
+ */
+class MachineModel {
+
+	static int OUTER_MARGIN = 4;
+	/** Extra space around damaged elements, for the borders drawn on and just beyond their right and bottom edges. */
+	static final int DAMAGE_MARGIN = 2;
+	/** Beyond this many changed elements, a layout repaints everything rather than damage each of them and its arrows. */
+	static final int MAX_CHANGED_ELEMENTS = 256;
+
+	final TextMeasurer textExtents;
+	final MachineView view;
+	final SnapshotContext context;
+	/** The root of the element tree; its coordinates are those of the view. */
+	final Element root = new Element(null);
+	Element machine;
+	Heap heap;
+	/** Shared by all call stacks, so that they all have the same width. */
+	VariablesTable stackVariablesTable = new VariablesTable() {
+
+		@Override
+		void updateNamesWidth() {
+			int maxNamesWidth = 20;
+			for (CallStack stack : stacks)
+				for (StackFrame frame : stack.frames)
+					maxNamesWidth = Math.max(maxNamesWidth, frame.getDesiredNamesWidth());
+			namesWidth = maxNamesWidth;
+			view.redraw();
+		}
+
+		@Override
+		void updateValuesWidth() {
+			int maxValuesWidth = 20;
+			for (CallStack stack : stacks)
+				for (StackFrame frame : stack.frames)
+					maxValuesWidth = Math.max(maxValuesWidth, frame.getDesiredValuesWidth());
+			valuesWidth = maxValuesWidth;
+			view.redraw();
+		}
+
+	};
+
+	/** One per thread, from left to right. */
+	List<CallStack> stacks = new ArrayList<>();
+	volatile Snapshot snapshot;
+	/** The y coordinate of each message of the snapshot, followed by that of the machine. */
+	int[] messageYs = {0};
+	List<Runnable> delayedInitializers;
+	/** The arrows collected last, by {@link #collectArrows}. */
+	final Arrows arrows = new Arrows();
+	/** Counts the calls of {@link #layOut}; see {@link JavaObject#lastSeen}. */
+	long layOuts;
+	/** The value of {@link #layOuts} when {@link #arrows} were collected. */
+	long arrowsCollectedAt = -1;
+	/** Whether {@link #arrows} must be collected before the current layout damages an element's incoming arrows. */
+	boolean arrowsOutdated;
+	/**
+	 * The elements that moved or changed during the current layout, to be damaged once it is done, or
+	 * {@code null} if everything must be repainted.
+	 */
+	Set<Element> changedElements;
+	/** The variables highlighted as changed in {@link #highlightedStep}. */
+	final List<Variable> highlightedVariables = new ArrayList<>();
+	long highlightedStep = -1;
+
+	MachineModel(TextMeasurer textExtents, MachineView view, SnapshotContext context) {
+		this.textExtents = textExtents;
+		this.view = view;
+		this.context = context;
+	}
+
+	class Variable extends Element {
+
+		final static int PADDING = 1;
+		final static int INNER_PADDING = 3;
+
+		VariablesTable table;
+		VariableSnapshot state;
+		String name;
+		Extent nameExtent;
+		String valueString;
+		Object value;
+		Extent valueExtent;
+		/** The {@link Snapshot#step} in which this variable last changed; its value is highlighted during that step. */
+		long changedInStep = -1;
+
+		Variable(Element parent, Heap heap, int x, int y, VariablesTable table, VariableSnapshot variable) {
+			super(parent);
+			this.x = x;
+			this.y = y;
+			this.table = table;
+			this.width = table.namesWidth + table.valuesWidth;
+			setState(variable);
+		}
+
+		/**
+		 * Returns {@code false} if nothing changed.
+		 */
+		boolean setState(VariableSnapshot variable) {
+			if (variable.equals(state))
+				return false;
+			if (state == null || !state.name.equals(variable.name)) {
+				this.name = variable.name;
+				this.nameExtent = textExtents.stringExtent(this.name);
+			}
+			if (state == null || !state.valueString.equals(variable.valueString)) {
+				this.valueString = variable.valueString;
+				this.valueExtent = textExtents.stringExtent(valueString);
+			}
+			this.value = valueString;
+			long reference = variable.reference;
+			if (reference != VariableSnapshot.NO_OBJECT) {
+				delayedInitializers.add(() -> {
+					this.value = heap.objects.get(reference);
+				});
+			}
+			this.state = variable;
+			this.height = PADDING + Math.max(this.nameExtent.height, this.valueExtent.height) + PADDING;
+			return true;
+		}
+
+		/** Called on a variable of a frame or object that existed in the previous step. */
+		void update(VariableSnapshot variable) {
+			if (setState(variable))
+				highlight();
+		}
+
+		void highlight() {
+			changedInStep = snapshot.step;
+			highlightedVariables.add(this);
+		}
+
+		/** Returns the object this variable's arrow points to, or {@code null} if it has no arrow. */
+		JavaObject getArrowTarget() {
+			return this.value instanceof JavaObject && ((JavaObject)this.value).parent != null ? (JavaObject)this.value : null;
+		}
+
+		int getArrowX() {
+			return rootX() + this.table.namesWidth + this.table.valuesWidth / 2;
+		}
+
+		int getArrowY() {
+			return rootY() + this.height / 2;
+		}
+
+		@Override
+		void collectArrows(Arrows arrows, int rootX, int rootY) {
+			super.collectArrows(arrows, rootX, rootY);
+			JavaObject target = getArrowTarget();
+			if (target != null)
+				arrows.add(rootX + this.table.namesWidth + this.table.valuesWidth / 2, rootY + this.height / 2, this, target);
+		}
+
+		int getDesiredNamesWidth() {
+			return nameExtent.width + INNER_PADDING;
+		}
+
+		int getDesiredValuesWidth() {
+			return INNER_PADDING + valueExtent.width + INNER_PADDING;
+		}
+
+		MouseCursor getCursor(int x, int y) {
+			if (Math.abs(x - table.namesWidth) < 5)
+				return MouseCursor.RESIZE_COLUMN;
+			else if (Math.abs(x - table.namesWidth - table.valuesWidth) < 10)
+				return MouseCursor.RESIZE_COLUMN;
+			else
+				return MouseCursor.ARROW;
+		}
+
+		@Override boolean handleMouseEvent(MouseEventType type, MouseInput e) {
+			switch (type) {
+			case DOUBLE_CLICKED: {
+				// TODO: Create child elements for the column edges?
+				if (Math.abs(e.x - table.namesWidth) < 5)
+					table.updateNamesWidth();
+				else if (Math.abs(e.x - table.namesWidth - table.valuesWidth) < 10)
+					table.updateValuesWidth();
+				else if (table.namesWidth <= e.x) {
+					if (value instanceof JavaObject) {
+						// Show a closed object again, unless the heap dropped it
+						if (((JavaObject)value).parent == null && heap.objects.get(((JavaObject)value).id) == value) {
+							heap.add((JavaObject)value);
+							view.redraw();
+						}
+					} else if (state.truncatedString != VariableSnapshot.NO_OBJECT)
+						// Read the rest of the string
+						view.expand(state.truncatedString);
+				}
+				return true;
+			}
+			default: break;
+			}
+			return super.handleMouseEvent(type, e);
+		}
+
+	}
+
+	class ReturnFrame extends Element {
+		final static int BORDER = StackFrame.BORDER;
+		final static int PADDING = StackFrame.PADDING;
+
+		Variable returnValue;
+
+		ReturnFrame(CallStack stack, int localsX, VariableSnapshot returnValue) {
+			super(stack);
+			this.x = OUTER_MARGIN;
+			this.width = getStackFrameWidth();
+			this.returnValue = new Variable(this, heap, localsX, BORDER + PADDING, stackVariablesTable, returnValue);
+			this.height = this.returnValue.height + 2 * PADDING + 2 * BORDER;
+		}
+
+		void update(VariableSnapshot returnValue) {
+			this.returnValue.update(returnValue);
+			this.height = this.returnValue.height + 2 * PADDING + 2 * BORDER;
+		}
+
+	}
+
+	int getStackFrameWidth() {
+		return StackFrame.BORDER + StackFrame.PADDING + stackVariablesTable.namesWidth + stackVariablesTable.valuesWidth + StackFrame.PADDING + StackFrame.BORDER;
+	}
+
+	class StackFrame extends Element {
+
+		final static int BORDER = 2;
+		final static int PADDING = 3;
+
+		final CallStack stack;
+		FrameSnapshot state;
+		String method;
+		Extent methodExtent;
+		boolean active;
+		Variable[] locals = new Variable[0];
+		ReturnFrame returnFrame;
+
+		StackFrame(CallStack stack, FrameSnapshot frame) {
+			super(stack);
+			this.stack = stack;
+			this.x = OUTER_MARGIN;
+			this.width = getStackFrameWidth();
+			setState(frame);
+		}
+
+		/**
+		 * Keeps the locals whose names did not change, and highlights those whose values did,
+		 * unless this is a new frame.
+		 */
+		void setState(FrameSnapshot frame) {
+			boolean isNew = state == null;
+			this.state = frame;
+			this.active = frame.active;
+			if (!frame.method.equals(this.method)) {
+				this.method = frame.method;
+				this.methodExtent = textExtents.stringExtent(this.method);
+			}
+			int y = 0;
+			y += BORDER;
+			y += PADDING;
+			y += this.methodExtent.height;
+			y += PADDING;
+			int localsX = BORDER + PADDING;
+			HashMap<String, Variable> oldLocals = new HashMap<>();
+			for (Variable local : this.locals)
+				oldLocals.putIfAbsent(local.name, local);
+			Variable[] locals = new Variable[frame.locals.size()];
+			for (int i = 0; i < locals.length; i++) {
+				VariableSnapshot variable = frame.locals.get(i);
+				Variable local = oldLocals.remove(variable.name);
+				if (local == null) {
+					local = new Variable(this, heap, localsX, y, stackVariablesTable, variable);
+					if (!isNew)
+						local.highlight();
+				} else {
+					local.update(variable);
+					local.y = y;
+				}
+				locals[i] = local;
+				y += local.height + PADDING;
+			}
+			Set<Variable> keptLocals = Collections.newSetFromMap(new IdentityHashMap<>());
+			keptLocals.addAll(Arrays.asList(locals));
+			for (Variable local : this.locals)
+				if (!keptLocals.contains(local))
+					remove(local);
+			this.locals = locals;
+			y += BORDER;
+			this.height = y;
+			if (frame.returnValue == null) {
+				if (returnFrame != null)
+					stack.remove(returnFrame);
+				returnFrame = null;
+			} else if (returnFrame == null) {
+				returnFrame = new ReturnFrame(stack, localsX, frame.returnValue);
+				if (!isNew)
+					returnFrame.returnValue.highlight();
+			} else
+				returnFrame.update(frame.returnValue);
+		}
+
+		void setY(int y) {
+			this.y = y;
+			if (returnFrame != null)
+				returnFrame.y = y + this.height;
+		}
+
+		void dispose() {
+			stack.remove(this);
+			if (returnFrame != null)
+				stack.remove(returnFrame);
+		}
+
+		int getDesiredNamesWidth() {
+			int width = Math.max(20, methodExtent.width - stackVariablesTable.valuesWidth);
+			for (Element e : children)
+				width = Math.max(width, ((Variable)e).getDesiredNamesWidth());
+			return width;
+		}
+
+		int getDesiredValuesWidth() {
+			int width = Math.max(20, methodExtent.width - stackVariablesTable.namesWidth);
+			for (Element e : children)
+				width = Math.max(width, ((Variable)e).getDesiredValuesWidth());
+			return width;
+		}
+	}
+
+	/** The frames of one thread, below the thread's name. */
+	class CallStack extends Element {
+
+		final Object key;
+		ThreadSnapshot state;
+		String name;
+		Extent nameExtent;
+		List<StackFrame> frames = new ArrayList<>();
+
+		CallStack(ThreadSnapshot thread) {
+			super(machine);
+			key = thread.key;
+			width = OUTER_MARGIN + getStackFrameWidth() + OUTER_MARGIN;
+		}
+
+		/**
+		 * Keeps the frames that are still on the stack; only those whose snapshot changed are laid out again.
+		 */
+		void setState(ThreadSnapshot thread) {
+			if (thread == state)
+				return;
+			state = thread;
+			if (!thread.name.equals(name)) {
+				name = thread.name;
+				nameExtent = textExtents.stringExtent(name);
+			}
+			IdentityHashMap<Object, StackFrame> oldFrames = new IdentityHashMap<>();
+			for (StackFrame frame : frames)
+				oldFrames.put(frame.state.key, frame);
+			List<StackFrame> frames = new ArrayList<>(thread.frames.size());
+			int y = OUTER_MARGIN + nameExtent.height + OUTER_MARGIN;
+			for (FrameSnapshot frameSnapshot : thread.frames) {
+				StackFrame frame = oldFrames.remove(frameSnapshot.key);
+				if (frame == null)
+					frame = new StackFrame(this, frameSnapshot);
+				else if (frame.state != frameSnapshot)
+					frame.setState(frameSnapshot);
+				frame.setY(y);
+				y += frame.height;
+				frames.add(frame);
+			}
+			for (StackFrame frame : oldFrames.values())
+				frame.dispose();
+			this.frames = frames;
+			// The return value hangs below the active frame
+			StackFrame activeFrame = frames.isEmpty() ? null : frames.get(frames.size() - 1);
+			if (activeFrame != null && activeFrame.returnFrame != null)
+				y += activeFrame.returnFrame.height;
+			height = y + OUTER_MARGIN;
+		}
+	}
+
+	class CloseButton extends Element {
+
+		CloseButton(JavaObject object) {
+			super(object);
+			width = 10;
+			height = 10;
+			y = JavaObject.BORDER + JavaObject.PADDING;
+		}
+
+		@Override
+		boolean handleMouseEvent(MouseEventType type, MouseInput e) {
+			if (type == MouseEventType.UP) {
+				JavaObject object = (JavaObject)parent;
+				damageWithArrows(object);
+				object.parent.remove(object);
+				return true;
+			}
+			return super.handleMouseEvent(type, e);
+		}
+
+	}
+
+	class JavaObject extends Element {
+
+		static final int BORDER = 2;
+		static final int PADDING = 3;
+
+		long id;
+		/** Whether the heap gave this object a position yet; see {@link Heap#place}. */
+		boolean placed;
+		/** Whether the user moved this object; pinned objects stay on the heap when they become unreachable. */
+		boolean pinned;
+		/** The {@link MachineModel#layOuts} value of the last layout whose snapshot contained this object. */
+		long lastSeen;
+		ObjectSnapshot state;
+		String title;
+		Extent titleExtent;
+		VariablesTable table = new VariablesTable() {
+
+			@Override
+			void updateNamesWidth() {
+				int namesWidth = Math.max(20, titleExtent.width - valuesWidth);
+				for (Variable v : variables)
+					namesWidth = Math.max(namesWidth, v.getDesiredNamesWidth());
+				this.namesWidth = namesWidth;
+				view.redraw();
+			}
+
+			@Override
+			void updateValuesWidth() {
+				int valuesWidth = Math.max(20, titleExtent.width - namesWidth);
+				for (Variable v : variables)
+					valuesWidth = Math.max(valuesWidth, v.getDesiredValuesWidth());
+				this.valuesWidth = valuesWidth;
+				view.redraw();
+			}
+
+		};
+		Variable[] variables = new Variable[0];
+
+		CloseButton closeButton;
+
+		int getWidth() {
+			return BORDER + PADDING + table.namesWidth + table.valuesWidth + PADDING + BORDER;
+		}
+
+		JavaObject(int x, int y, long id) {
+			super(heap);
+			this.x = x;
+			this.y = y;
+			this.id = id;
+			this.width = getWidth();
+			this.height = 50;
+			closeButton = new CloseButton(this);
+		}
+
+		@Override
+		void mouseEntered() { damage(this); }
+
+		@Override
+		void mouseExited() { damage(this); }
+
+		@Override
+		boolean handleMouseEvent(MouseEventType type, MouseInput e) {
+			if (type == MouseEventType.DOUBLE_CLICKED && state.isStub()) {
+				view.expand(id);
+				return true;
+			}
+			if (type == MouseEventType.DOUBLE_CLICKED && (state.logical || context.internalsShown.contains(id)) && findChildAt(e.x, e.y) == null) {
+				// Switch between the entries of a collection and its fields; double-clicks on its rows are theirs
+				if (!context.internalsShown.remove(id))
+					context.internalsShown.add(id);
+				view.reread(id);
+				return true;
+			}
+			if (type == MouseEventType.WHEEL && state.isArray()) {
+				int offset = context.arrayOffsets.getOrDefault(id, state.arrayOffset);
+				int newOffset = Math.max(0, Math.min(offset - e.count, state.arrayLength - Settings.arrayWindow));
+				if (newOffset == offset)
+					// At the first or last window; let the canvas scroll instead
+					return false;
+				context.arrayOffsets.put(id, newOffset);
+				view.reread(id);
+				return true;
+			}
+			if (type == MouseEventType.DOWN)
+				view.beginDrag(this);
+			return super.handleMouseEvent(type, e);
+		}
+
+		/** Moves this object because the user drags it, and pins it. */
+		void moveTo(int x, int y) {
+			this.x = x;
+			this.y = y;
+			pinned = true;
+			heap.moved(this);
+		}
+
+		/**
+		 * If only field values changed, the fields are kept and the changed ones are highlighted.
+		 */
+		void setState(ObjectSnapshot object) {
+			if (object == state)
+				return;
+			ObjectSnapshot oldState = state;
+			state = object;
+			if (!object.title.equals(title)) {
+				title = object.title;
+				titleExtent = textExtents.stringExtent(title);
+			}
+			int y = BORDER + PADDING;
+			y += titleExtent.height;
+			y += PADDING;
+			if (object.isStub()) {
+				for (Variable variable : this.variables)
+					remove(variable);
+				this.variables = new Variable[0];
+				this.height = y + BORDER;
+				this.width = BORDER + PADDING + titleExtent.width + PADDING + closeButton.width + PADDING + BORDER;
+				closeButton.x = this.width - BORDER - PADDING - closeButton.width;
+				return;
+			}
+			boolean sameShape = oldState != null && !oldState.isStub() && oldState.arrayOffset == object.arrayOffset && oldState.fields.size() == object.fields.size();
+			if (sameShape)
+				for (int i = 0; i < this.variables.length; i++)
+					if (!this.variables[i].name.equals(object.fields.get(i).name))
+						sameShape = false;
+			int localsX = BORDER + PADDING;
+			if (sameShape) {
+				for (int i = 0; i < this.variables.length; i++)
+					this.variables[i].update(object.fields.get(i));
+			} else {
+				for (Variable variable : this.variables)
+					remove(variable);
+				this.variables = new Variable[object.fields.size()];
+				for (int i = 0; i < this.variables.length; i++)
+					this.variables[i] = new Variable(this, heap, localsX, 0, table, object.fields.get(i));
+			}
+			for (Variable variable : this.variables) {
+				variable.y = y;
+				y += variable.height;
+				y += PADDING;
+			}
+			y += BORDER;
+			this.height = y;
+			this.width = getWidth();
+			closeButton.x = this.width - BORDER - PADDING - closeButton.width;
+		}
+	}
+
+
+	class Heap extends Element {
+
+		static final int PADDING = 10;
+		/** Horizontal space between the columns of the layers of the {@link HeapLayout}. */
+		static final int LAYER_GAP = 40;
+		static final int FIRST_COLUMN_X = 30;
+
+		/**
+		 * The x coordinate of the column of each layer that objects were placed in. Columns stay put,
+		 * so that objects that appear in later steps line up with those placed before.
+		 */
+		int[] columnXs = new int[0];
+		/** Reused by {@link #isFree}. */
+		final ArrayList<Element> overlapping = new ArrayList<>();
+
+		/** By id. Holds the objects of the current snapshot, including those the user closed, and the pinned objects; see {@link #evict}. */
+		final LongObjectMap<JavaObject> objects = new LongObjectMap<>();
+		/** Reused by {@link #evict}. */
+		final ArrayList<JavaObject> unseen = new ArrayList<>();
+		/** Indexes the objects that are shown, for painting and hit-testing. */
+		final SpatialGrid index = new SpatialGrid();
+
+		Heap() {
+			super(machine);
+			this.x = 300;
+		}
+
+		@Override
+		void add(Element child) {
+			super.add(child);
+			index.update(child);
+		}
+
+		@Override
+		void remove(Element child) {
+			super.remove(child);
+			index.remove(child);
+		}
+
+		/** Must be called when a shown object moves or changes size. Grows the heap, and the machine, to cover it. */
+		void moved(JavaObject object) {
+			if (object.parent == this) {
+				index.update(object);
+				width = Math.max(width, object.x + object.width + PADDING);
+				height = Math.max(height, object.y + object.height + PADDING);
+				machine.width = Math.max(machine.width, x + width);
+				machine.height = Math.max(machine.height, height);
+			}
+		}
+
+		@Override
+		Element findChildAt(int x, int y) {
+			Element result = null;
+			List<Element> candidates = index.candidatesAt(x, y);
+			for (int i = 0, n = candidates.size(); i < n; i++) {
+				Element child = candidates.get(i);
+				if (child.x <= x && x < child.x + child.width && child.y <= y && y < child.y + child.height && (result == null || child.z > result.z))
+					result = child;
+			}
+			return result;
+		}
+
+		JavaObject get(ObjectSnapshot object) {
+			long id = object.id;
+			JavaObject result = objects.get(id);
+			if (result == null) {
+				// Not placed until all objects of the snapshot are known
+				result = new JavaObject(0, 0, id);
+				result.setState(object);
+				objects.put(id, result);
+				added(result);
+			} else if (result.state != object) {
+				if (result.parent != null && !result.state.equals(object))
+					changing(result);
+				result.setState(object);
+			}
+			result.lastSeen = layOuts;
+			moved(result);
+			return result;
+		}
+
+		/**
+		 * Drops the objects that are not in the snapshot just laid out, because the target collected them
+		 * or they are no longer reachable, except pinned ones. Pinned objects beyond
+		 * {@link Settings#heapCapacity} are dropped as well, those seen least recently first.
+		 */
+		void evict() {
+			objects.forEachValue(object -> {
+				if (object.lastSeen != layOuts)
+					unseen.add(object);
+			});
+			int keep = Math.max(0, Settings.heapCapacity - (objects.size() - unseen.size()));
+			int pinned = 0;
+			for (JavaObject object : unseen)
+				if (object.pinned)
+					pinned++;
+			if (pinned > keep)
+				// The least recently seen go first
+				unseen.sort((a, b) -> Long.compare(b.lastSeen, a.lastSeen));
+			for (JavaObject object : unseen) {
+				if (object.pinned && keep > 0) {
+					keep--;
+					continue;
+				}
+				objects.remove(object.id);
+				if (object.parent != null) {
+					changing(object);
+					remove(object);
+				}
+			}
+			unseen.clear();
+		}
+
+		/**
+		 * Places the objects that are not placed yet in the columns of their layers. A new object goes
+		 * right below the object before it in its layer if there is room, and at the bottom of the
+		 * column otherwise. Objects placed before, including those the user dragged, do not move.
+		 */
+		void place(HeapLayout layout) {
+			int x = FIRST_COLUMN_X;
+			for (int l = 0; l < layout.layers.size(); l++) {
+				long[] layer = layout.layers.get(l);
+				if (l < columnXs.length)
+					x = columnXs[l];
+				else {
+					columnXs = Arrays.copyOf(columnXs, l + 1);
+					columnXs[l] = x;
+				}
+				int bottom = OUTER_MARGIN;
+				for (long id : layer) {
+					JavaObject object = objects.get(id);
+					if (object != null && object.placed && object.x == x)
+						bottom = Math.max(bottom, object.y + object.height + PADDING);
+				}
+				int columnWidth = 0;
+				JavaObject previous = null;
+				for (long id : layer) {
+					JavaObject object = objects.get(id);
+					if (object == null)
+						continue;
+					if (!object.placed) {
+						int y = previous != null && previous.x == x ? previous.y + previous.height + PADDING : OUTER_MARGIN;
+						if (!isFree(x, y, object.width, object.height))
+							y = bottom;
+						object.x = x;
+						object.y = y;
+						object.placed = true;
+						moved(object);
+						bottom = Math.max(bottom, y + object.height + PADDING);
+					}
+					columnWidth = Math.max(columnWidth, object.width);
+					width = Math.max(width, object.x + object.width + PADDING);
+					height = Math.max(height, object.y + object.height + PADDING);
+					previous = object;
+				}
+				x += columnWidth + LAYER_GAP;
+			}
+		}
+
+		/** Returns whether no placed object overlaps the given area. */
+		boolean isFree(int x, int y, int width, int height) {
+			index.query(x, y, width, height, overlapping);
+			boolean free = true;
+			for (int i = 0, n = overlapping.size(); i < n; i++)
+				if (((JavaObject)overlapping.get(i)).placed)
+					free = false;
+			overlapping.clear();
+			return free;
+		}
+	}
+
+	/** Drops all elements, e.g. because they must be measured again with a different font. */
+	void clear() {
+		if (machine != null)
+			root.remove(machine);
+		machine = null;
+		heap = null;
+		stacks = new ArrayList<>();
+	}
+
+	/**
+	 * Shows the given snapshot, keeping the elements of the previous one that are still there.
+	 * A {@code null} snapshot means there is no debug target. Schedules repaints of what changed;
+	 * everything, unless only the call stacks and objects changed.
+	 */
+	void setSnapshot(Snapshot snapshot) {
+		Snapshot previous = this.snapshot;
+		this.snapshot = snapshot;
+		if (snapshot == null) {
+			clear();
+			view.redraw();
+			return;
+		}
+		int[] messageYs = new int[snapshot.messages.size() + 1];
+		int y = 0;
+		for (int i = 0; i < snapshot.messages.size(); i++) {
+			messageYs[i] = y;
+			y += 1 + textExtents.stringExtent(snapshot.messages.get(i)).height + 1;
+		}
+		messageYs[snapshot.messages.size()] = y;
+		boolean incremental = previous != null && machine != null && previous.messages.equals(snapshot.messages);
+		this.messageYs = messageYs;
+		if (snapshot.step != highlightedStep) {
+			// The variables highlighted in the previous step look normal again
+			if (incremental)
+				for (Variable variable : highlightedVariables)
+					damage(variable);
+			highlightedVariables.clear();
+			highlightedStep = snapshot.step;
+		}
+		if (snapshot.threads.isEmpty()) {
+			view.redraw();
+			return;
+		}
+		if (incremental) {
+			changedElements = Collections.newSetFromMap(new IdentityHashMap<>());
+			arrowsOutdated = arrowsCollectedAt != layOuts;
+		}
+		int heapX = incremental ? heap.x : 0;
+		int machineY = incremental ? machine.y : 0;
+		layOut(snapshot);
+		if (changedElements == null || heap.x != heapX || machine.y != machineY)
+			view.redraw();
+		else
+			for (Element element : changedElements)
+				if (element.parent != null)
+					damageWithArrows(element);
+		changedElements = null;
+	}
+
+	/** Lays out the machine below the messages. */
+	void layOut(Snapshot snapshot) {
+		int y = messageYs[snapshot.messages.size()];
+		if (heap == null) {
+			machine = new Element(root);
+			heap = new Heap();
+		}
+		machine.y = y;
+		layOuts++;
+		delayedInitializers = new ArrayList<>();
+		// Keep the call stacks of the threads that are still suspended, in the order of the snapshot
+		IdentityHashMap<Object, CallStack> oldStacks = new IdentityHashMap<>();
+		for (CallStack stack : stacks)
+			oldStacks.put(stack.key, stack);
+		List<CallStack> stacks = new ArrayList<>(snapshot.threads.size());
+		int x = 0;
+		int height = heap.height;
+		for (ThreadSnapshot thread : snapshot.threads) {
+			CallStack stack = oldStacks.remove(thread.key);
+			if (stack == null) {
+				stack = new CallStack(thread);
+				added(stack);
+			} else if (stack.x != x || stack.state != thread && !(stack.state.name.equals(thread.name) && stack.state.frames.equals(thread.frames)))
+				changing(stack);
+			stack.setState(thread);
+			stack.x = x;
+			x += stack.width;
+			height = Math.max(height, stack.height);
+			stacks.add(stack);
+		}
+		for (CallStack stack : oldStacks.values()) {
+			changing(stack);
+			machine.remove(stack);
+		}
+		this.stacks = stacks;
+		for (ObjectSnapshot object : snapshot.objects.values())
+			heap.get(object);
+		heap.evict();
+		heap.place(snapshot.layout);
+		heap.x = x;
+		machine.width = heap.x + heap.width;
+		machine.height = Math.max(height, heap.height);
+		Metrics.Timer timer = Metrics.start(Metrics.Phase.REFERENCES);
+		for (Runnable r : delayedInitializers)
+			r.run();
+		Metrics.stop(timer);
+		delayedInitializers = null;
+	}
+
+	/**
+	 * Called during an incremental layout before the given element, which is shown, moves or changes:
+	 * damages it, with its arrows, where it is now, and marks it to be damaged again once the layout is done.
+	 */
+	void changing(Element element) {
+		if (changedElements != null && !changedElements.contains(element)) {
+			if (arrowsOutdated) {
+				// Only now, since most steps change nothing that is shown
+				collectArrows();
+				// Collected halfway through the layout
+				arrowsCollectedAt = -1;
+				arrowsOutdated = false;
+			}
+			damageWithArrows(element);
+			added(element);
+		}
+	}
+
+	/** Called during an incremental layout on an element that is shown from now on. */
+	void added(Element element) {
+		if (changedElements == null)
+			return;
+		if (changedElements.size() < MAX_CHANGED_ELEMENTS)
+			changedElements.add(element);
+		else
+			changedElements = null;
+	}
+
+	/** Collects the arrows of the current layout into {@link #arrows}. */
+	void collectArrows() {
+		arrows.clear();
+		root.collectArrows(arrows, root.x, root.y);
+		arrowsCollectedAt = layOuts;
+	}
+
+	/** Schedules a repaint of the area covered by the given element. */
+	void damage(Element element) {
+		view.redraw(element.rootX() - DAMAGE_MARGIN, element.rootY() - DAMAGE_MARGIN, element.width + 2 * DAMAGE_MARGIN, element.height + 2 * DAMAGE_MARGIN);
+	}
+
+	/** Schedules a repaint of the area covered by an arrow from the given point to the given element, wherever on the element it ends. */
+	void damageArrow(int fromX, int fromY, Element toElement) {
+		int toX = toElement.rootX();
+		int toY = toElement.rootY();
+		int left = Math.min(fromX, toX);
+		int top = Math.min(fromY, toY);
+		int right = Math.max(fromX, toX + toElement.width);
+		int bottom = Math.max(fromY, toY + toElement.height);
+		// The arrowhead sticks out at most half its width from the line
+		int margin = Arrows.ARROWHEAD_WIDTH;
+		view.redraw(left - margin, top - margin, right - left + 2 * margin, bottom - top + 2 * margin);
+	}
+
+	/**
+	 * Schedules a repaint of the given element and of the arrows from and to it, at their current positions.
+	 * Incoming arrows are found among those collected last.
+	 */
+	void damageWithArrows(Element element) {
+		if (delayedInitializers == null && arrowsCollectedAt != layOuts)
+			// Not halfway through a layout, so the arrows can be brought up to date
+			collectArrows();
+		damage(element);
+		damageArrowsFrom(element);
+		for (int i = 0; i < arrows.size; i++) {
+			if (arrows.toElements[i] == element) {
+				Variable source = (Variable)arrows.fromElements[i];
+				damageArrow(source.getArrowX(), source.getArrowY(), element);
+			}
+		}
+	}
+
+	void damageArrowsFrom(Element element) {
+		if (element instanceof Variable) {
+			Variable variable = (Variable)element;
+			JavaObject target = variable.getArrowTarget();
+			if (target != null)
+				damageArrow(variable.getArrowX(), variable.getArrowY(), target);
+		}
+		for (Element child = element.firstChild.nextSibling; child != element.firstChild; child = child.nextSibling)
+			damageArrowsFrom(child);
+	}
+
+}
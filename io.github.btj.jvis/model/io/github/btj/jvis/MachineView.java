@@ -0,0 +1,30 @@
+package io.github.btj.jvis;
+
+/**
+ * What a {@link MachineModel} needs from whatever shows it. The coordinates are those of the
+ * model's root element.
+ */
+interface MachineView {
+
+	/** Schedules a repaint of everything. */
+	void redraw();
+
+	/** Schedules a repaint of the given rectangle. */
+	void redraw(int x, int y, int width, int height);
+
+	/** Lets the user drag the given object around until the mouse button is released. */
+	void beginDrag(MachineModel.JavaObject object);
+
+	/**
+	 * Reads the object with the given id again, e.g. because the user wants to see a stub or all of a truncated string,
+	 * and keeps reading it in later snapshots regardless of the budget.
+	 */
+	void expand(long id);
+
+	/**
+	 * Reads the object with the given id again once, e.g. because the user scrolled an array; later snapshots read it
+	 * only within the budget, like any other object.
+	 */
+	void reread(long id);
+
+}
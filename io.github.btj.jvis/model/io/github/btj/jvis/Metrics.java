@@ -0,0 +1,133 @@
+package io.github.btj.jvis;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and phase timers that tell why a refresh of the Machine State view is slow. They are only
+ * kept while some {@link Listener} is registered, e.g. the view's overlay, Eclipse tracing or a
+ * {@link FlightRecorderEvents} recording; otherwise each probe costs one field read.
+ *
+ * Counters may be incremented from any thread. A timed phase reports how much each counter grew while
+ * it ran, which includes the counts of other phases that ran concurrently on other threads.
+ */
+class Metrics {
+
+	enum Counter {
+		DEBUG_CALLS("debug model calls"),
+		OBJECTS_READ("objects read"),
+		VARIABLES_READ("variables read"),
+		TEXT_MEASURED("strings measured"),
+		ARROWS_DRAWN("arrows drawn"),
+		TILES_RENDERED("tiles rendered");
+
+		final String label;
+
+		Counter(String label) {
+			this.label = label;
+		}
+	}
+
+	enum Phase {
+		/** Reading a snapshot from the debug model, off the UI thread. */
+		SNAPSHOT("snapshot"),
+		/** Reading objects the user expanded or scrolled, off the UI thread. */
+		EXPANSION("expansion"),
+		/** Laying out a snapshot, including {@link #REFERENCES}. */
+		LAYOUT("layout"),
+		/** Running the {@code delayedInitializers} of a layout, which point variables to their objects. */
+		REFERENCES("references"),
+		PAINT("paint");
+
+		final String label;
+
+		Phase(String label) {
+			this.label = label;
+		}
+	}
+
+	interface Listener {
+
+		/**
+		 * Called on the thread that ran the phase. {@code counts} holds how much each counter grew during the
+		 * phase, by {@link Counter#ordinal()}; it must not be kept.
+		 */
+		void phaseEnded(Phase phase, long nanos, long[] counts);
+
+	}
+
+	static final Counter[] COUNTERS = Counter.values();
+	static final LongAdder[] totals = new LongAdder[COUNTERS.length];
+	static final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+	static volatile boolean enabled;
+
+	static {
+		for (int i = 0; i < totals.length; i++)
+			totals[i] = new LongAdder();
+	}
+
+	static void addListener(Listener listener) {
+		listeners.add(listener);
+		enabled = true;
+	}
+
+	static void removeListener(Listener listener) {
+		listeners.remove(listener);
+		enabled = !listeners.isEmpty();
+	}
+
+	static void count(Counter counter) {
+		if (enabled)
+			totals[counter.ordinal()].increment();
+	}
+
+	static void count(Counter counter, long amount) {
+		if (enabled)
+			totals[counter.ordinal()].add(amount);
+	}
+
+	/** A run of a phase; see {@link Metrics#start}. */
+	static class Timer {
+
+		final Phase phase;
+		final long start;
+		final long[] counts = new long[COUNTERS.length];
+
+		Timer(Phase phase) {
+			this.phase = phase;
+			for (int i = 0; i < counts.length; i++)
+				counts[i] = totals[i].sum();
+			this.start = System.nanoTime();
+		}
+
+		void stop() {
+			long nanos = System.nanoTime() - start;
+			for (int i = 0; i < counts.length; i++)
+				counts[i] = totals[i].sum() - counts[i];
+			for (Listener listener : listeners)
+				listener.phaseEnded(phase, nanos, counts);
+		}
+
+	}
+
+	/** Returns {@code null} unless enabled; pass the result to {@link #stop}. */
+	static Timer start(Phase phase) {
+		return enabled ? new Timer(phase) : null;
+	}
+
+	static void stop(Timer timer) {
+		if (timer != null)
+			timer.stop();
+	}
+
+	/** Returns a line such as {@code "layout 1.25 ms, 3 strings measured"}, leaving out the counters that did not grow. */
+	static String format(Phase phase, long nanos, long[] counts) {
+		StringBuilder result = new StringBuilder(phase.label);
+		result.append(String.format(" %.2f ms", nanos / 1e6));
+		for (int i = 0; i < counts.length; i++)
+			if (counts[i] != 0)
+				result.append(", ").append(counts[i]).append(' ').append(COUNTERS[i].label);
+		return result.toString();
+	}
+
+}
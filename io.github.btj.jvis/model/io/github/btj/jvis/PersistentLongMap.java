@@ -0,0 +1,314 @@
+package io.github.btj.jvis;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * An immutable map from {@code long} keys to non-null values, as a hash array mapped trie: changing it
+ * returns a new map that shares all of the trie with this one except the path to the changed entry.
+ * This lets the snapshots in the {@link SnapshotHistory} each have all of their objects, while costing
+ * only what changed since the previous snapshot. Iterates in the order of the keys' hashes.
+ */
+class PersistentLongMap<V> extends AbstractMap<Long, V> {
+
+	static final int BITS = 5;
+	static final int MASK = (1 << BITS) - 1;
+	/** The hashes are 64 bits long, so the trie is at most this deep. */
+	static final int MAX_DEPTH = (64 + BITS - 1) / BITS;
+
+	static final PersistentLongMap<?> EMPTY = new PersistentLongMap<>(new Node(0, new Object[0]), 0);
+
+	/** Holds an {@link Entry} or a child node for each bit set in the bitmap, in the order of the bits. */
+	static class Node {
+		final int bitmap;
+		final Object[] slots;
+
+		Node(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+
+		int indexOf(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		Node inserted(int bit, Object slot) {
+			int index = indexOf(bit);
+			Object[] result = new Object[slots.length + 1];
+			System.arraycopy(slots, 0, result, 0, index);
+			result[index] = slot;
+			System.arraycopy(slots, index, result, index + 1, slots.length - index);
+			return new Node(bitmap | bit, result);
+		}
+
+		Node replaced(int index, Object slot) {
+			Object[] result = slots.clone();
+			result[index] = slot;
+			return new Node(bitmap, result);
+		}
+
+		Node removed(int bit) {
+			int index = indexOf(bit);
+			Object[] result = new Object[slots.length - 1];
+			System.arraycopy(slots, 0, result, 0, index);
+			System.arraycopy(slots, index + 1, result, index, result.length - index);
+			return new Node(bitmap & ~bit, result);
+		}
+	}
+
+	static class Entry<V> implements Map.Entry<Long, V> {
+		final long key;
+		final V value;
+
+		Entry(long key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public Long getKey() {
+			return key;
+		}
+
+		@Override
+		public V getValue() {
+			return value;
+		}
+
+		@Override
+		public V setValue(V value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>)other;
+			return getKey().equals(entry.getKey()) && value.equals(entry.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(key) ^ value.hashCode();
+		}
+	}
+
+	final Node root;
+	final int size;
+
+	PersistentLongMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <V> PersistentLongMap<V> empty() {
+		return (PersistentLongMap<V>)EMPTY;
+	}
+
+	/** Multiplying by an odd number maps distinct keys to distinct hashes, so keys never collide. */
+	static long hash(long key) {
+		return key * 0x9E3779B97F4A7C15L;
+	}
+
+	static int bit(long hash, int shift) {
+		return 1 << (int)(hash >>> shift & MASK);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(long key) {
+		long hash = hash(key);
+		Node node = root;
+		for (int shift = 0; ; shift += BITS) {
+			int bit = bit(hash, shift);
+			if ((node.bitmap & bit) == 0)
+				return null;
+			Object slot = node.slots[node.indexOf(bit)];
+			if (!(slot instanceof Node)) {
+				Entry<V> entry = (Entry<V>)slot;
+				return entry.key == key ? entry.value : null;
+			}
+			node = (Node)slot;
+		}
+	}
+
+	@Override
+	public V get(Object key) {
+		return key instanceof Long ? get((long)(Long)key) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	/** Returns this map itself if it already maps the key to this very value. */
+	PersistentLongMap<V> with(long key, V value) {
+		if (value == null)
+			throw new NullPointerException();
+		V old = get(key);
+		if (old == value)
+			return this;
+		return new PersistentLongMap<>(with(root, 0, hash(key), new Entry<>(key, value)), old == null ? size + 1 : size);
+	}
+
+	static Node with(Node node, int shift, long hash, Entry<?> entry) {
+		int bit = bit(hash, shift);
+		if ((node.bitmap & bit) == 0)
+			return node.inserted(bit, entry);
+		int index = node.indexOf(bit);
+		Object slot = node.slots[index];
+		if (slot instanceof Node)
+			return node.replaced(index, with((Node)slot, shift + BITS, hash, entry));
+		Entry<?> other = (Entry<?>)slot;
+		if (other.key == entry.key)
+			return node.replaced(index, entry);
+		return node.replaced(index, pair(other, hash(other.key), entry, hash, shift + BITS));
+	}
+
+	/** Returns the node for two entries whose hashes agree below {@code shift}. */
+	static Node pair(Entry<?> a, long hashA, Entry<?> b, long hashB, int shift) {
+		int bitA = bit(hashA, shift);
+		int bitB = bit(hashB, shift);
+		if (bitA == bitB)
+			return new Node(bitA, new Object[] {pair(a, hashA, b, hashB, shift + BITS)});
+		boolean aFirst = Integer.compareUnsigned(bitA, bitB) < 0;
+		return new Node(bitA | bitB, aFirst ? new Object[] {a, b} : new Object[] {b, a});
+	}
+
+	PersistentLongMap<V> without(long key) {
+		if (get(key) == null)
+			return this;
+		return new PersistentLongMap<>(without(root, 0, hash(key)), size - 1);
+	}
+
+	/** The key must be in the trie below {@code node}. */
+	static Node without(Node node, int shift, long hash) {
+		int bit = bit(hash, shift);
+		int index = node.indexOf(bit);
+		Object slot = node.slots[index];
+		if (!(slot instanceof Node))
+			return node.removed(bit);
+		Node child = without((Node)slot, shift + BITS, hash);
+		// A node left with a single entry is replaced by that entry, so that lookups stay short
+		if (child.slots.length == 1 && !(child.slots[0] instanceof Node))
+			return node.replaced(index, child.slots[0]);
+		return node.replaced(index, child);
+	}
+
+	/**
+	 * Returns a map with the given contents. Entries whose values are the very same as in this map are kept,
+	 * so that the result shares the trie with this map except where they differ.
+	 */
+	PersistentLongMap<V> withContents(Map<Long, ? extends V> contents) {
+		PersistentLongMap<V> result = this;
+		for (Map.Entry<Long, V> entry : entrySet())
+			if (!contents.containsKey(entry.getKey()))
+				result = result.without(entry.getKey());
+		for (Map.Entry<Long, ? extends V> entry : contents.entrySet())
+			result = result.with(entry.getKey(), entry.getValue());
+		return result;
+	}
+
+	/**
+	 * Passes each value of this map to {@code action} that {@code newer} does not map its key to, or maps it to another
+	 * value. Skips the parts of the trie that the two maps share, so this takes time in what changed between them.
+	 */
+	void forEachRemoved(PersistentLongMap<V> newer, Consumer<? super V> action) {
+		forEachRemoved(root, newer.root, newer, action);
+	}
+
+	@SuppressWarnings("unchecked")
+	static <V> void forEachRemoved(Node node, Node newerNode, PersistentLongMap<V> newer, Consumer<? super V> action) {
+		int bitmap = node.bitmap;
+		for (int index = 0; bitmap != 0; index++, bitmap &= bitmap - 1) {
+			int bit = Integer.lowestOneBit(bitmap);
+			Object slot = node.slots[index];
+			Object newerSlot = newerNode != null && (newerNode.bitmap & bit) != 0 ? newerNode.slots[newerNode.indexOf(bit)] : null;
+			if (slot == newerSlot)
+				continue;
+			if (slot instanceof Node)
+				forEachRemoved((Node)slot, newerSlot instanceof Node ? (Node)newerSlot : null, newer, action);
+			else {
+				Entry<V> entry = (Entry<V>)slot;
+				if (newer.get(entry.key) != entry.value)
+					action.accept(entry.value);
+			}
+		}
+	}
+
+	@Override
+	public Set<Map.Entry<Long, V>> entrySet() {
+		return new AbstractSet<Map.Entry<Long, V>>() {
+			@Override
+			public Iterator<Map.Entry<Long, V>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/** Walks the trie depth-first, keeping the path to the next entry. */
+	class EntryIterator implements Iterator<Map.Entry<Long, V>> {
+		final Node[] nodes = new Node[MAX_DEPTH];
+		final int[] indices = new int[MAX_DEPTH];
+		int depth;
+		Entry<V> next;
+
+		EntryIterator() {
+			nodes[0] = root;
+			advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		void advance() {
+			next = null;
+			while (depth >= 0) {
+				Node node = nodes[depth];
+				if (indices[depth] == node.slots.length) {
+					depth--;
+					continue;
+				}
+				Object slot = node.slots[indices[depth]++];
+				if (slot instanceof Node) {
+					depth++;
+					nodes[depth] = (Node)slot;
+					indices[depth] = 0;
+				} else {
+					next = (Entry<V>)slot;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<Long, V> next() {
+			if (next == null)
+				throw new NoSuchElementException();
+			Entry<V> result = next;
+			advance();
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package io.github.btj.jvis;
+
+/**
+ * Tuning knobs of the Machine State view. Each can be overridden with a system property
+ * of the same name prefixed with {@code io.github.btj.jvis.}, e.g. in the {@code eclipse.ini}
+ * file: {@code -Dio.github.btj.jvis.refreshInterval=250}.
+ */
+class Settings {
+
+	static final String PREFIX = "io.github.btj.jvis.";
+
+	/** Minimum number of milliseconds between the starts of two snapshots. */
+	static int refreshInterval = Integer.getInteger(PREFIX + "refreshInterval", 100);
+	
+	/**
+	 * Objects further than this many references away from a local variable are shown as stubs.
+	 * The objects that locals point to are at depth 1.
+	 */
+	static int maxDepth = Integer.getInteger(PREFIX + "maxDepth", 10);
+	
+	/** Once a snapshot holds this many objects, any further objects are shown as stubs. */
+	static int maxObjects = Integer.getInteger(PREFIX + "maxObjects", 500);
+	
+	/**
+	 * Number of objects the view keeps. Objects that are no longer reachable are dropped after each
+	 * snapshot anyway, unless the user pinned them by moving them; beyond this number, the pinned
+	 * objects that were reachable least recently are dropped as well.
+	 */
+	static int heapCapacity = Integer.getInteger(PREFIX + "heapCapacity", 2000);
+	
+	/** Number of snapshots kept for stepping back through earlier machine states. */
+	static int historySize = Integer.getInteger(PREFIX + "historySize", 100);
+	
+	/**
+	 * Number of objects whose contents are exported to a snapshot file. Objects discovered beyond
+	 * this number are exported with their type only.
+	 */
+	static int exportMaxObjects = Integer.getInteger(PREFIX + "exportMaxObjects", 1000000);
+	
+	/**
+	 * Number of characters of a string that are read from the target and shown. The rest of a longer
+	 * string is read when the user double-clicks it.
+	 */
+	static int maxStringLength = Integer.getInteger(PREFIX + "maxStringLength", 200);
+	
+	/**
+	 * Number of entries of a collection that are read from the target and shown, e.g. of a
+	 * {@code java.util.HashMap}, instead of the objects that implement it.
+	 */
+	static int maxCollectionEntries = Integer.getInteger(PREFIX + "maxCollectionEntries", 20);
+	
+	/**
+	 * Comma-separated types whose objects are shown inline, as their value, in the variables that reference them,
+	 * instead of as objects in the heap; see {@link LeafTypes}. An entry ending in {@code .*} stands for the types
+	 * of a package and its subpackages.
+	 */
+	static String leafTypes = System.getProperty(PREFIX + "leafTypes", "java.lang.Boolean,java.lang.Byte,java.lang.Character,"
+			+ "java.lang.Short,java.lang.Integer,java.lang.Long,java.lang.Float,java.lang.Double,java.lang.Class,"
+			+ "java.math.BigInteger,java.math.BigDecimal,java.util.UUID,java.time.LocalDate,java.time.LocalTime,"
+			+ "java.time.LocalDateTime,java.time.Instant,java.time.Duration,java.time.Period");
+	
+	/** Whether enum constants are shown inline, like the {@link #leafTypes}. */
+	static boolean leafEnums = Boolean.parseBoolean(System.getProperty(PREFIX + "leafEnums", "true"));
+	
+	/** Number of elements of an array that are shown, and read from the target, at a time. */
+	static int arrayWindow = Integer.getInteger(PREFIX + "arrayWindow", 20);
+	
+	/**
+	 * Number of threads that read objects from the target concurrently, so that the latencies of
+	 * their round-trips overlap. 1 reads everything on the thread that builds the snapshot.
+	 */
+	static int readerThreads = Integer.getInteger(PREFIX + "readerThreads", 8);
+	
+	/**
+	 * Milliseconds that ordering the layers of the heap may take per snapshot, off the UI thread.
+	 * At least one sweep is always done.
+	 */
+	static int layoutBudget = Integer.getInteger(PREFIX + "layoutBudget", 50);
+	
+	/** Number of measured strings kept by the {@link TextExtentCache}. */
+	static int textExtentCacheSize = Integer.getInteger(PREFIX + "textExtentCacheSize", 4096);
+	
+	/**
+	 * Number of rendered tiles of 256 by 256 pixels the view keeps, over all zoom levels. Each takes
+	 * a quarter of a megabyte; the tiles that cover the view must fit.
+	 */
+	static int tileCacheSize = Integer.getInteger(PREFIX + "tileCacheSize", 128);
+	
+	/** Zoom, in percent, below which objects and stack frames are shown without their variables. */
+	static int variablesMinZoom = Integer.getInteger(PREFIX + "variablesMinZoom", 50);
+	
+	/** Zoom, in percent, below which objects and stack frames are shown as plain boxes and arrows without heads. */
+	static int textMinZoom = Integer.getInteger(PREFIX + "textMinZoom", 25);
+	
+	/**
+	 * Whether to emit each phase of each refresh as a Java Flight Recorder event, as the
+	 * {@code io.github.btj.jvis/debug/flightRecorder} tracing option does.
+	 */
+	static boolean flightRecorderEvents = Boolean.getBoolean(PREFIX + "flightRecorderEvents");
+
+}
@@ -0,0 +1,195 @@
+package io.github.btj.jvis;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An immutable picture of the call stacks and the reachable heap of the debug target,
+ * taken once per suspend by a {@link SnapshotJob}. Painting only ever looks at snapshots,
+ * never at the debug model itself.
+ * 
+ * Threads, frames and objects that did not change since the previous snapshot are the very same
+ * instances as in the previous snapshot, so consumers can detect changes by identity. The map of
+ * objects and the layout share what did not change with those of the previous snapshot as well, so
+ * that a snapshot kept in the {@link SnapshotHistory} costs about what changed in its step.
+ */
+class Snapshot {
+
+	/** Counts the suspends; snapshots that only expand objects of an earlier snapshot share its step. */
+	final long step;
+	/** Lines of text shown above the machine, e.g. about ignored targets. */
+	final List<String> messages;
+	/** The suspended user threads, in the order of the debug model. */
+	final List<ThreadSnapshot> threads;
+	/** The objects reachable from the frames. */
+	final PersistentLongMap<ObjectSnapshot> objects;
+	/** Where new objects should go. */
+	final HeapLayout layout;
+
+	Snapshot(long step, List<String> messages, List<ThreadSnapshot> threads, PersistentLongMap<ObjectSnapshot> objects, HeapLayout layout) {
+		this.step = step;
+		this.messages = Collections.unmodifiableList(messages);
+		this.threads = Collections.unmodifiableList(threads);
+		this.objects = objects;
+		this.layout = layout;
+	}
+
+}
+
+class ThreadSnapshot {
+
+	/** Identifies the thread across suspends. */
+	final Object key;
+	final String name;
+	/** The {@link DebugThread#getChangeCount()} of the thread when it was read. */
+	final long changeCount;
+	/** The stack frames, outermost first. */
+	final List<FrameSnapshot> frames;
+
+	ThreadSnapshot(Object key, String name, long changeCount, List<FrameSnapshot> frames) {
+		this.key = key;
+		this.name = name;
+		this.changeCount = changeCount;
+		this.frames = Collections.unmodifiableList(frames);
+	}
+
+}
+
+class FrameSnapshot {
+
+	/** Identifies the frame across suspends: the debug model reuses its stack frame objects while a frame stays on the stack. */
+	final Object key;
+	final String method;
+	final boolean active;
+	final List<VariableSnapshot> locals;
+	/** The value returned by the most recent call, or {@code null}. Only set on the active frame. */
+	final VariableSnapshot returnValue;
+
+	FrameSnapshot(Object key, String method, boolean active, List<VariableSnapshot> locals, VariableSnapshot returnValue) {
+		this.key = key;
+		this.method = method;
+		this.active = active;
+		this.locals = Collections.unmodifiableList(locals);
+		this.returnValue = returnValue;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof FrameSnapshot))
+			return false;
+		FrameSnapshot frame = (FrameSnapshot)other;
+		return key == frame.key && method.equals(frame.method) && active == frame.active && locals.equals(frame.locals) && Objects.equals(returnValue, frame.returnValue);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(System.identityHashCode(key), method, locals);
+	}
+
+}
+
+class VariableSnapshot {
+
+	static final long NO_OBJECT = -1;
+
+	final String name;
+	final String valueString;
+	/** The unique id of the object this variable points to, or {@link #NO_OBJECT}. Strings are shown inline and have no reference. */
+	final long reference;
+	/** For a string of which only a prefix is shown, its id, so that the user can ask for the rest; otherwise {@link #NO_OBJECT}. */
+	final long truncatedString;
+
+	VariableSnapshot(String name, String valueString, long reference, long truncatedString) {
+		this.name = name;
+		this.valueString = valueString;
+		this.reference = reference;
+		this.truncatedString = truncatedString;
+	}
+
+	VariableSnapshot(String name, String valueString, long reference) {
+		this(name, valueString, reference, NO_OBJECT);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof VariableSnapshot))
+			return false;
+		VariableSnapshot variable = (VariableSnapshot)other;
+		return name.equals(variable.name) && valueString.equals(variable.valueString) && reference == variable.reference && truncatedString == variable.truncatedString;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(name, valueString, reference);
+	}
+
+}
+
+class ObjectSnapshot {
+
+	final long id;
+	final String title;
+	/** {@code null} for a stub, i.e. an object that lies beyond the depth or size budget of the snapshot and whose fields were not read. */
+	final List<VariableSnapshot> fields;
+	/**
+	 * The debug model object it can be read again from, e.g. to expand a stub or to scroll an array. Cleared
+	 * by the {@link SnapshotHistory} once the object is no longer in the latest snapshot, so that the history
+	 * does not keep the debug model alive; the object can no longer be read then.
+	 */
+	Object source;
+	/** For an array, its length; otherwise -1. */
+	final int arrayLength;
+	/** For an array, the index of the element that {@link #fields} starts at. Only a window of the elements is read. */
+	final int arrayOffset;
+	/**
+	 * Whether {@link #fields} are the entries of a collection, as given by its logical structure, rather than its
+	 * fields. The user can ask for the fields instead; see {@link SnapshotContext#internalsShown}.
+	 */
+	final boolean logical;
+
+	ObjectSnapshot(long id, String title, List<VariableSnapshot> fields, Object source, int arrayLength, int arrayOffset, boolean logical) {
+		this.id = id;
+		this.title = title;
+		this.fields = fields == null ? null : Collections.unmodifiableList(fields);
+		this.source = source;
+		this.arrayLength = arrayLength;
+		this.arrayOffset = arrayOffset;
+		this.logical = logical;
+	}
+
+	ObjectSnapshot(long id, String title, List<VariableSnapshot> fields, Object source, int arrayLength, int arrayOffset) {
+		this(id, title, fields, source, arrayLength, arrayOffset, false);
+	}
+
+	ObjectSnapshot(long id, String title, List<VariableSnapshot> fields, Object source) {
+		this(id, title, fields, source, -1, 0);
+	}
+
+	ObjectSnapshot(long id, String title, Object source) {
+		this(id, title, null, source, -1, 0);
+	}
+
+	boolean isArray() {
+		return arrayLength >= 0;
+	}
+
+	/** Ignores {@link #source}. */
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof ObjectSnapshot))
+			return false;
+		ObjectSnapshot object = (ObjectSnapshot)other;
+		return id == object.id && title.equals(object.title) && Objects.equals(fields, object.fields) && arrayLength == object.arrayLength && arrayOffset == object.arrayOffset && logical == object.logical;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(id, title, fields);
+	}
+
+	boolean isStub() {
+		return fields == null;
+	}
+
+}
@@ -0,0 +1,562 @@
+package io.github.btj.jvis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Reads a {@link DebugValueSource} and builds a {@link Snapshot}. This performs all of the
+ * round-trips to the target VM, so it must not run on the UI thread.
+ *
+ * The threads, their frames, and then the heap, are read in waves: all objects discovered by the previous wave
+ * are read concurrently by the {@link #workers}, so that their round-trips overlap. The results of
+ * a wave are merged in discovery order, so the snapshot is the same as if the objects had been read
+ * one by one, breadth-first.
+ */
+class SnapshotBuilder {
+
+	/** Shared by all builders. Tasks must not wait for other tasks, since the pool is bounded. */
+	static final ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Settings.readerThreads), runnable -> {
+		Thread thread = new Thread(runnable, "Machine state reader");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** Returns the value string of a string with the given contents. */
+	static String quote(String contents, long id) {
+		return '"' + contents + '"' + " (id=" + id + ")";
+	}
+
+	static String chopPackageName(String fullyQualifiedName) {
+		int i = fullyQualifiedName.lastIndexOf('.');
+		if (i >= 0)
+			return fullyQualifiedName.substring(i + 1);
+		else
+			return fullyQualifiedName;
+	}
+	
+	static class PendingObject {
+		final long id;
+		final DebugValue javaObject;
+		final String typeName;
+		final int depth;
+		
+		PendingObject(long id, DebugValue javaObject, String typeName, int depth) {
+			this.id = id;
+			this.javaObject = javaObject;
+			this.typeName = typeName;
+			this.depth = depth;
+		}
+	}
+
+	final DebugValueSource source;
+	final SnapshotContext context;
+	/** The snapshot the canvas currently shows, or {@code null}. Unchanged threads, frames and objects are taken over from it. */
+	final Snapshot previous;
+	List<String> messages = new ArrayList<>();
+	LinkedHashMap<Long, ObjectSnapshot> objects = new LinkedHashMap<>();
+	ArrayDeque<PendingObject> pendingObjects = new ArrayDeque<>();
+	HashSet<Long> discoveredIds = new HashSet<>();
+	/** Number of objects whose fields were read so far. */
+	int objectsRead;
+	
+	final IdentityHashMap<Object, ThreadSnapshot> previousThreads = new IdentityHashMap<>();
+	final IdentityHashMap<Object, FrameSnapshot> previousFrames = new IdentityHashMap<>();
+	
+	SnapshotBuilder(DebugValueSource source, SnapshotContext context, Snapshot previous) {
+		this.source = source;
+		this.context = context;
+		this.previous = previous;
+		if (previous != null) {
+			for (ThreadSnapshot thread : previous.threads) {
+				previousThreads.put(thread.key, thread);
+				for (FrameSnapshot frame : thread.frames)
+					previousFrames.put(frame.key, frame);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the previous snapshot of the frame if it did not change. Otherwise, returns a snapshot
+	 * that shares the locals that did not change, so that the {@link SnapshotHistory} keeps only what changed.
+	 */
+	FrameSnapshot reuse(FrameSnapshot frame) {
+		FrameSnapshot previousFrame = previousFrames.get(frame.key);
+		if (previousFrame == null)
+			return frame;
+		if (frame.equals(previousFrame))
+			return previousFrame;
+		return new FrameSnapshot(frame.key, frame.method.equals(previousFrame.method) ? previousFrame.method : frame.method, frame.active,
+				reuse(frame.locals, previousFrame.locals), frame.returnValue != null && frame.returnValue.equals(previousFrame.returnValue) ? previousFrame.returnValue : frame.returnValue);
+	}
+	
+	/** Like {@link #reuse(FrameSnapshot)}, for objects. */
+	ObjectSnapshot reuse(ObjectSnapshot object) {
+		if (previous == null)
+			return object;
+		ObjectSnapshot previousObject = previous.objects.get(object.id);
+		if (previousObject == null)
+			return object;
+		// An object whose source was cleared cannot be read again, so it must not stay in the latest snapshot
+		if (object.equals(previousObject) && previousObject.source != null)
+			return previousObject;
+		if (object.isStub() || previousObject.isStub())
+			return object;
+		return new ObjectSnapshot(object.id, object.title.equals(previousObject.title) ? previousObject.title : object.title,
+				reuse(object.fields, previousObject.fields), object.source, object.arrayLength, object.arrayOffset, object.logical);
+	}
+
+	/** Returns the given variables, with those equal to the previous variable at the same index replaced by that one. */
+	static List<VariableSnapshot> reuse(List<VariableSnapshot> variables, List<VariableSnapshot> previousVariables) {
+		List<VariableSnapshot> result = new ArrayList<>(variables.size());
+		for (int i = 0; i < variables.size(); i++) {
+			VariableSnapshot variable = variables.get(i);
+			result.add(i < previousVariables.size() && variable.equals(previousVariables.get(i)) ? previousVariables.get(i) : variable);
+		}
+		return result;
+	}
+
+	/** A user thread, as read by {@link #readThread(DebugThread)}. */
+	static class ThreadRead {
+		final DebugThread thread;
+		final String name;
+		final long changeCount;
+		/** The thread's snapshot in {@link #previous} if the thread did not change since; otherwise {@code null}. */
+		final ThreadSnapshot unchanged;
+		/** If the thread did not change, the objects its frames reference; otherwise, the frames to read, outermost first. */
+		final List<PendingObject> references = new ArrayList<>();
+		final List<DebugFrame> frames = new ArrayList<>();
+
+		ThreadRead(DebugThread thread, String name, long changeCount, ThreadSnapshot unchanged) {
+			this.thread = thread;
+			this.name = name;
+			this.changeCount = changeCount;
+			this.unchanged = unchanged;
+		}
+	}
+
+	/**
+	 * Returns {@code null} if there is no debug target.
+	 */
+	Snapshot build() throws DebugReadException {
+		List<? extends DebugTarget> targets = source.getTargets();
+		context.targetShown(targets.isEmpty() ? null : targets.get(0).getKey());
+		if (targets.isEmpty())
+			return null;
+		List<ThreadSnapshot> threadSnapshots = new ArrayList<>();
+		List<? extends DebugThread> threads = targets.get(0).getThreads();
+		if (!threads.isEmpty()) {
+			if (targets.size() > 1)
+				messages.add("Multiple debug targets exist. Showing target " + targets.get(0).getName() + ".");
+			// First list the frames of the user threads that changed, then read all of those frames, concurrently
+			List<Callable<ThreadRead>> threadTasks = new ArrayList<>();
+			for (DebugThread thread : threads)
+				threadTasks.add(() -> readThread(thread));
+			List<ThreadRead> userThreads = new ArrayList<>();
+			for (ThreadRead thread : readAll(threadTasks))
+				if (thread != null)
+					userThreads.add(thread);
+			List<Callable<FrameSnapshot>> tasks = new ArrayList<>();
+			List<List<PendingObject>> references = new ArrayList<>();
+			for (ThreadRead thread : userThreads) {
+				for (int i = 0; i < thread.frames.size(); i++) {
+					DebugFrame frame = thread.frames.get(i);
+					boolean active = i == thread.frames.size() - 1;
+					List<PendingObject> frameReferences = new ArrayList<>();
+					references.add(frameReferences);
+					tasks.add(() -> captureFrame(frame, active, frameReferences));
+				}
+			}
+			List<FrameSnapshot> frames = readAll(tasks);
+			int frameIndex = 0;
+			for (ThreadRead thread : userThreads) {
+				if (thread.unchanged != null) {
+					threadSnapshots.add(thread.unchanged);
+					discover(thread.references);
+					continue;
+				}
+				List<FrameSnapshot> threadFrames = new ArrayList<>(thread.frames.size());
+				for (int i = 0; i < thread.frames.size(); i++, frameIndex++) {
+					threadFrames.add(reuse(frames.get(frameIndex)));
+					discover(references.get(frameIndex));
+				}
+				threadSnapshots.add(new ThreadSnapshot(thread.thread.getKey(), thread.name, thread.changeCount, threadFrames));
+			}
+			readPendingObjects();
+		}
+		context.retainShown(objects.keySet());
+		return snapshot(context.step, messages, threadSnapshots);
+	}
+
+	/**
+	 * Returns {@code null} for a system thread or a thread that is not suspended. A thread whose
+	 * {@link DebugThread#getChangeCount()} did not change since the {@link #previous} snapshot is not read again.
+	 */
+	ThreadRead readThread(DebugThread thread) throws DebugReadException {
+		try {
+			if (thread.isSystemThread())
+				return null;
+		} catch (DebugReadException e) {
+			e.printStackTrace();
+			return null;
+		}
+		long changeCount = thread.getChangeCount();
+		ThreadSnapshot previousThread = previousThreads.get(thread.getKey());
+		if (previousThread != null && previousThread.changeCount == changeCount) {
+			ThreadRead result = new ThreadRead(thread, previousThread.name, changeCount, previousThread);
+			if (addReferences(previousThread, result.references))
+				return result;
+		}
+		List<? extends DebugFrame> stackFrames = thread.getFrames();
+		if (stackFrames.isEmpty())
+			return null;
+		ThreadRead result = new ThreadRead(thread, thread.getName(), changeCount, null);
+		for (int i = 0; i < stackFrames.size(); i++) {
+			DebugFrame frame = stackFrames.get(stackFrames.size() - i - 1);
+			boolean active = i == stackFrames.size() - 1;
+			String declaringTypeName = frame.getDeclaringTypeName();
+			if (active || !(declaringTypeName != null && declaringTypeName.contains("$$Lambda$")))
+				result.frames.add(frame);
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the objects that the frames of the given thread reference to {@code references}, as
+	 * {@link #captureFrame} would. Returns {@code false} if one of them is missing from the {@link #previous} snapshot.
+	 */
+	boolean addReferences(ThreadSnapshot thread, List<PendingObject> references) throws DebugReadException {
+		for (FrameSnapshot frame : thread.frames) {
+			for (VariableSnapshot local : frame.locals)
+				if (!addReference(local, references))
+					return false;
+			if (frame.returnValue != null && !addReference(frame.returnValue, references))
+				return false;
+		}
+		return true;
+	}
+
+	boolean addReference(VariableSnapshot variable, List<PendingObject> references) throws DebugReadException {
+		if (variable.reference == VariableSnapshot.NO_OBJECT)
+			return true;
+		ObjectSnapshot object = previous.objects.get(variable.reference);
+		if (object == null || object.source == null)
+			return false;
+		DebugValue value = (DebugValue)object.source;
+		references.add(new PendingObject(object.id, value, value.getTypeName(), 1));
+		return true;
+	}
+	
+	/**
+	 * Returns a copy of {@code base}, which must be the {@link #previous} snapshot, in which the given objects
+	 * have been read again, together with the objects within {@link Settings#maxDepth} of them
+	 * that were not read yet, within a fresh object budget. Used to expand stubs and to scroll arrays;
+	 * only the objects in the expanded ids are read regardless of the budget in later snapshots.
+	 * Truncated strings among the ids are read whole.
+	 */
+	Snapshot expand(Snapshot base, Collection<Long> ids) throws DebugReadException {
+		// Before reading any objects, so that those show the strings whole as well
+		HashMap<Long, String> completedStrings = new HashMap<>();
+		for (long id : ids) {
+			DebugValue string = context.truncatedStrings.get(id);
+			if (string != null) {
+				String valueString = quote(string.getValueString(), id);
+				context.stringValues.put(id, valueString);
+				context.truncatedStrings.remove(id);
+				completedStrings.put(id, valueString);
+			}
+		}
+		objects.putAll(base.objects);
+		for (ObjectSnapshot object : base.objects.values())
+			if (!object.isStub())
+				discoveredIds.add(object.id);
+		for (long id : ids) {
+			ObjectSnapshot object = base.objects.get(id);
+			if (object != null && object.source != null) {
+				discoveredIds.add(id);
+				pendingObjects.add(new PendingObject(id, (DebugValue)object.source, null, 0));
+			}
+		}
+		readPendingObjects();
+		List<ThreadSnapshot> threads = base.threads;
+		if (!completedStrings.isEmpty()) {
+			threads = new ArrayList<>(base.threads.size());
+			for (ThreadSnapshot thread : base.threads)
+				threads.add(completeStrings(thread, completedStrings));
+			objects.replaceAll((id, object) -> completeStrings(object, completedStrings));
+		}
+		return snapshot(base.step, base.messages, threads);
+	}
+
+	/**
+	 * Returns the snapshot of the objects read, laid out in the order in which they were discovered. Its map of objects
+	 * and its layout share what did not change with those of the {@link #previous} snapshot.
+	 */
+	Snapshot snapshot(long step, List<String> messages, List<ThreadSnapshot> threads) {
+		PersistentLongMap<ObjectSnapshot> base = previous == null ? PersistentLongMap.empty() : previous.objects;
+		HeapLayout layout = HeapLayout.compute(threads, objects, previous == null ? null : previous.layout);
+		return new Snapshot(step, messages, threads, base.withContents(objects), layout);
+	}
+
+	/**
+	 * Returns the given thread with the strings that were truncated and are now in the given value strings, by id,
+	 * shown whole. Like the other {@code completeStrings} methods, returns what it is given if nothing changes.
+	 */
+	static ThreadSnapshot completeStrings(ThreadSnapshot thread, Map<Long, String> valueStrings) {
+		List<FrameSnapshot> frames = new ArrayList<>(thread.frames.size());
+		boolean changed = false;
+		for (FrameSnapshot frame : thread.frames) {
+			VariableSnapshot returnValue = frame.returnValue == null ? null : completeString(frame.returnValue, valueStrings);
+			List<VariableSnapshot> locals = completeStrings(frame.locals, valueStrings);
+			if (returnValue != frame.returnValue || locals != frame.locals) {
+				frame = new FrameSnapshot(frame.key, frame.method, frame.active, locals, returnValue);
+				changed = true;
+			}
+			frames.add(frame);
+		}
+		return changed ? new ThreadSnapshot(thread.key, thread.name, thread.changeCount, frames) : thread;
+	}
+
+	static ObjectSnapshot completeStrings(ObjectSnapshot object, Map<Long, String> valueStrings) {
+		if (object.isStub())
+			return object;
+		List<VariableSnapshot> fields = completeStrings(object.fields, valueStrings);
+		return fields == object.fields ? object : new ObjectSnapshot(object.id, object.title, fields, object.source, object.arrayLength, object.arrayOffset, object.logical);
+	}
+
+	static List<VariableSnapshot> completeStrings(List<VariableSnapshot> variables, Map<Long, String> valueStrings) {
+		List<VariableSnapshot> result = null;
+		for (int i = 0; i < variables.size(); i++) {
+			VariableSnapshot variable = completeString(variables.get(i), valueStrings);
+			if (variable != variables.get(i)) {
+				if (result == null)
+					result = new ArrayList<>(variables);
+				result.set(i, variable);
+			}
+		}
+		return result == null ? variables : result;
+	}
+
+	static VariableSnapshot completeString(VariableSnapshot variable, Map<Long, String> valueStrings) {
+		String valueString = valueStrings.get(variable.truncatedString);
+		return valueString == null ? variable : new VariableSnapshot(variable.name, valueString, VariableSnapshot.NO_OBJECT);
+	}
+	
+	/**
+	 * Runs the given tasks on the {@link #workers} and returns their results in order.
+	 * If any task fails, throws the exception of the first one that failed.
+	 */
+	static <T> List<T> readAll(List<Callable<T>> tasks) throws DebugReadException {
+		List<T> results = new ArrayList<>(tasks.size());
+		try {
+			if (tasks.size() <= 1 || Settings.readerThreads <= 1) {
+				for (Callable<T> task : tasks)
+					results.add(task.call());
+				return results;
+			}
+			for (Future<T> future : workers.invokeAll(tasks))
+				results.add(future.get());
+			return results;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof DebugReadException)
+				throw (DebugReadException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw new DebugReadException(cause.getMessage(), cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DebugReadException("Interrupted while reading the machine state", e);
+		} catch (DebugReadException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new DebugReadException(e.getMessage(), e);
+		}
+	}
+
+	/** Adds the given references, in order, to the pending objects, unless they were discovered before. */
+	void discover(List<PendingObject> references) {
+		for (PendingObject reference : references)
+			if (discoveredIds.add(reference.id))
+				pendingObjects.addLast(reference);
+	}
+
+	void readPendingObjects() throws DebugReadException {
+		while (!pendingObjects.isEmpty()) {
+			// Decide which objects of this wave to read in discovery order, so that the budget is spent as if they were read one by one
+			List<PendingObject> wave = new ArrayList<>(pendingObjects);
+			pendingObjects.clear();
+			ObjectSnapshot[] waveObjects = new ObjectSnapshot[wave.size()];
+			List<Callable<ObjectSnapshot>> tasks = new ArrayList<>();
+			List<List<PendingObject>> references = new ArrayList<>();
+			for (int i = 0; i < wave.size(); i++) {
+				PendingObject pending = wave.get(i);
+				long id = pending.id;
+				boolean expanded = context.expandedIds.contains(id);
+				if (expanded || pending.depth <= Settings.maxDepth && objectsRead < Settings.maxObjects) {
+					// The budget restarts below an object the user expanded explicitly
+					int depth = expanded ? 0 : pending.depth;
+					objectsRead++;
+					List<PendingObject> objectReferences = new ArrayList<>();
+					references.add(objectReferences);
+					tasks.add(() -> captureObject(pending.javaObject, depth, objectReferences));
+				} else
+					waveObjects[i] = new ObjectSnapshot(id, chopPackageName(pending.typeName) + " (id=" + id + ")", pending.javaObject);
+			}
+			List<ObjectSnapshot> read = readAll(tasks);
+			for (int i = 0, j = 0; i < wave.size(); i++) {
+				ObjectSnapshot object = waveObjects[i] != null ? waveObjects[i] : read.get(j++);
+				objects.put(wave.get(i).id, reuse(object));
+			}
+			for (List<PendingObject> objectReferences : references)
+				discover(objectReferences);
+		}
+	}
+
+	/**
+	 * The capture methods may run concurrently; they add the objects that the captured values
+	 * reference to {@code references}, in order, to be merged by the calling thread.
+	 */
+	FrameSnapshot captureFrame(DebugFrame frame, boolean active, List<PendingObject> references) throws DebugReadException {
+		String method;
+		String declaringTypeName = frame.getDeclaringTypeName();
+		if (declaringTypeName != null) {
+			String className = chopPackageName(declaringTypeName);
+			String signature = String.join(", ", frame.getArgumentTypeNames().stream().map(SnapshotBuilder::chopPackageName).collect(Collectors.toList()));
+			method = className + "::" + frame.getMethodName() + "(" + signature + ")";
+		} else
+			method = frame.getName();
+		int lineNumber = frame.getLineNumber();
+		if (1 <= lineNumber)
+			method += " on line " + lineNumber;
+		List<? extends DebugVariable> variables = frame.getVariables();
+		DebugVariable returnValue = null;
+		if (active && !variables.isEmpty()) {
+			// The first local in the active stack frame seems to be the return value from the most recent call
+			returnValue = variables.get(0);
+			variables = variables.subList(1, variables.size());
+		}
+		List<VariableSnapshot> locals = new ArrayList<>();
+		for (DebugVariable variable : variables) {
+			if (!(variable.getName().equals("Lambda") || variable.isStatic()))
+				locals.add(captureValue(variable.getName(), variable.getValue(), 0, references));
+		}
+		VariableSnapshot returnValueSnapshot = null;
+		if (returnValue != null && !returnValue.getName().equals("no method return value") && !returnValue.getReferenceTypeName().equals("void"))
+			returnValueSnapshot = captureValue(returnValue.getName(), returnValue.getValue(), 0, references);
+		return new FrameSnapshot(frame.getKey(), method, active, locals, returnValueSnapshot);
+	}
+
+	/** {@code depth} is that of the object itself. */
+	ObjectSnapshot captureObject(DebugValue javaObject, int depth, List<PendingObject> references) throws DebugReadException {
+		Metrics.count(Metrics.Counter.OBJECTS_READ);
+		long id = javaObject.getUniqueId();
+		String title = chopPackageName(javaObject.getTypeName()) + " (id=" + id + ")";
+		List<VariableSnapshot> fields = new ArrayList<>();
+		if (javaObject.isArray()) {
+			// Only read the elements in the visible window
+			int length = javaObject.getArrayLength();
+			title += " (length=" + length + ")";
+			int offset = Math.max(0, Math.min(context.arrayOffsets.getOrDefault(id, 0), length - Settings.arrayWindow));
+			int count = Math.min(Settings.arrayWindow, length - offset);
+			List<? extends DebugValue> values = javaObject.getArrayElements(offset, count);
+			for (int i = 0; i < count; i++)
+				fields.add(captureValue("[" + (offset + i) + "]", values.get(i), depth, references));
+			return new ObjectSnapshot(id, title, fields, javaObject, length, offset);
+		}
+		if (!context.internalsShown.contains(id)) {
+			// Show a collection as its first entries rather than as the objects that implement it
+			LogicalStructure structure = javaObject.getLogicalStructure(Settings.maxCollectionEntries);
+			if (structure != null) {
+				title += " (size=" + structure.size + ")";
+				for (int i = 0; i < structure.values.size(); i++) {
+					String name = structure.keys == null ? "[" + i + "]" : keyName(structure.keys.get(i));
+					fields.add(captureValue(name, structure.values.get(i), depth, references));
+				}
+				if (structure.size > structure.values.size())
+					fields.add(new VariableSnapshot("\u2026", (structure.size - structure.values.size()) + " more", VariableSnapshot.NO_OBJECT));
+				return new ObjectSnapshot(id, title, fields, javaObject, -1, 0, true);
+			}
+		}
+		for (DebugVariable variable : javaObject.getFields()) {
+			if (!variable.isStatic())
+				fields.add(captureValue(variable.getName(), variable.getValue(), depth, references));
+		}
+		return new ObjectSnapshot(id, title, fields, javaObject);
+	}
+
+	/** Returns the name of the entry of a map with the given key: its value string, without the objects it references. */
+	String keyName(DebugValue key) throws DebugReadException {
+		return captureValue("", key, Settings.maxDepth, new ArrayList<>()).valueString;
+	}
+
+	/**
+	 * If the given object is a {@link LeafTypes leaf}, returns its value string, e.g. {@code Integer 42 (id=7)}, so that
+	 * it is shown inline rather than in the heap; otherwise returns {@code null}.
+	 */
+	String captureLeaf(DebugValue value, long id, String typeName) throws DebugReadException {
+		boolean isEnum = Settings.leafEnums && value.isEnumConstant();
+		if (!isEnum && !LeafTypes.configured.contains(typeName))
+			return null;
+		boolean immutable = LeafTypes.isImmutable(typeName, isEnum);
+		String valueString = immutable ? context.stringValues.get(id) : null;
+		if (valueString != null)
+			return valueString;
+		String leafValue = LeafTypes.configured.valueString(value, typeName, isEnum, 0);
+		if (leafValue == null)
+			return null;
+		valueString = chopPackageName(typeName) + " " + leafValue + " (id=" + id + ")";
+		if (immutable)
+			context.stringValues.put(id, valueString);
+		return valueString;
+	}
+
+	/** {@code depth} is that of the frame or object that holds the value; frames are at depth 0. */
+	VariableSnapshot captureValue(String name, DebugValue value, int depth, List<PendingObject> references) throws DebugReadException {
+		Metrics.count(Metrics.Counter.VARIABLES_READ);
+		if (value.isObject()) {
+			long id = value.getUniqueId();
+			String typeName = value.getTypeName();
+			if (typeName.equals("java.lang.String")) {
+				// Only read the contents of strings we have not seen before, and only the start of long ones unless the user expanded them
+				String valueString = context.stringValues.get(id);
+				if (valueString == null) {
+					if (context.expandedIds.contains(id))
+						valueString = quote(value.getValueString(), id);
+					else {
+						StringPrefix prefix = value.getStringPrefix(Settings.maxStringLength);
+						if (prefix.isComplete())
+							valueString = quote(prefix.text, id);
+						else {
+							valueString = '"' + prefix.text + "\u2026\" (length=" + prefix.length + ", id=" + id + ")";
+							context.truncatedStrings.put(id, value);
+						}
+					}
+					context.stringValues.put(id, valueString);
+				}
+				return new VariableSnapshot(name, valueString, VariableSnapshot.NO_OBJECT, context.truncatedStrings.containsKey(id) ? id : VariableSnapshot.NO_OBJECT);
+			}
+			String leafValueString = captureLeaf(value, id, typeName);
+			if (leafValueString != null)
+				return new VariableSnapshot(name, leafValueString, VariableSnapshot.NO_OBJECT);
+			references.add(new PendingObject(id, value, typeName, depth + 1));
+			return new VariableSnapshot(name, chopPackageName(typeName) + " (id=" + id + ")", id);
+		}
+		return new VariableSnapshot(name, value.getValueString(), VariableSnapshot.NO_OBJECT);
+	}
+
+}
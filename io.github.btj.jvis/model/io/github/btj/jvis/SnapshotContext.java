@@ -0,0 +1,73 @@
+package io.github.btj.jvis;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What {@link SnapshotBuilder}s remember across snapshots: the user's choices of what to show,
+ * and caches of values that do not need to be read from the target again. All of it is by object id,
+ * so it only holds for the target it was read from; see {@link #targetShown}.
+ */
+class SnapshotContext {
+
+	/** Stubs the user expanded; these are read regardless of the budget. */
+	final Set<Long> expandedIds = ConcurrentHashMap.newKeySet();
+	/** For each array the user scrolled, the index of the first element to show. */
+	final Map<Long, Integer> arrayOffsets = new ConcurrentHashMap<>();
+	/**
+	 * The value strings of {@code java.lang.String} objects, and of the {@link LeafTypes leaves} that are immutable,
+	 * by id; those objects are immutable, so these never go stale.
+	 */
+	final Map<Long, String> stringValues = new ConcurrentHashMap<>();
+	/** The strings of which {@link #stringValues} only holds a prefix, by id, to read the rest from if the user asks. */
+	final Map<Long, DebugValue> truncatedStrings = new ConcurrentHashMap<>();
+	/** Collections whose fields the user asked to see, instead of the entries of their logical structure. */
+	final Set<Long> internalsShown = ConcurrentHashMap.newKeySet();
+
+	static final int MAX_CACHED_STRINGS = 10000;
+
+	/** See {@link Snapshot#step}. */
+	volatile long step;
+	/** The {@link DebugTarget#getKey() key} of the target the ids are those of, or {@code null}. */
+	volatile Object target;
+
+	/** Called when the snapshots start to come from another source or target, whose ids mean other objects. */
+	void clear() {
+		expandedIds.clear();
+		arrayOffsets.clear();
+		stringValues.clear();
+		truncatedStrings.clear();
+		internalsShown.clear();
+	}
+
+	/** Called with the key of the target each snapshot shows, or {@code null} if there is none; forgets everything if it changed. */
+	void targetShown(Object key) {
+		if (!Objects.equals(key, target)) {
+			clear();
+			target = key;
+		}
+	}
+
+	/**
+	 * Called with the ids of the objects of each snapshot that follows a suspend. Forgets the choices made for objects
+	 * that are no longer in it, so that these do not pile up over a session. Expanded strings are kept as long as their
+	 * contents are cached.
+	 */
+	void retainShown(Set<Long> ids) {
+		expandedIds.removeIf(id -> !ids.contains(id) && !stringValues.containsKey(id));
+		arrayOffsets.keySet().retainAll(ids);
+		internalsShown.retainAll(ids);
+	}
+
+	/** Called before each snapshot that follows a suspend. */
+	void targetSuspended() {
+		step++;
+		if (stringValues.size() > MAX_CACHED_STRINGS) {
+			stringValues.clear();
+			truncatedStrings.clear();
+		}
+	}
+
+}
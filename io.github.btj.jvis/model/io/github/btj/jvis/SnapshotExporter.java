@@ -0,0 +1,189 @@
+package io.github.btj.jvis;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the machine state of a {@link DebugValueSource} to a {@link SnapshotFile}. The file is written
+ * while the stacks and the heap are walked: each frame and object goes out as soon as it is read, so the
+ * exporter only holds the ids of the objects discovered so far and the objects still to be read.
+ *
+ * Unlike a {@link SnapshotBuilder}, the exporter is not limited by {@link Settings#maxDepth} or
+ * {@link Settings#maxObjects}, so that a replay can be expanded as far as the live target could.
+ */
+class SnapshotExporter {
+
+	final DebugValueSource source;
+	final DataOutputStream out;
+	/**
+	 * The offset of the record of each object discovered so far, or 0 until it is written. Once all
+	 * records are written, its table is written as the index of the file.
+	 */
+	final LongObjectMap<Integer> offsets = new LongObjectMap<>();
+	/** Discovered objects whose records are not written yet, breadth-first. */
+	final ArrayDeque<DebugValue> pendingObjects = new ArrayDeque<>();
+
+	SnapshotExporter(DebugValueSource source, OutputStream out) {
+		this.source = source;
+		this.out = new DataOutputStream(out);
+	}
+
+	/** Returns the number of objects written. */
+	static int export(DebugValueSource source, Path path) throws IOException, DebugReadException {
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)) {
+			return new SnapshotExporter(source, out).export();
+		}
+	}
+
+	int export() throws IOException, DebugReadException {
+		List<? extends DebugTarget> targets = source.getTargets();
+		if (targets.isEmpty())
+			throw new IOException("There is no debug target to export.");
+		DebugTarget target = targets.get(0);
+		out.writeInt(SnapshotFile.MAGIC);
+		out.writeInt(SnapshotFile.VERSION);
+		writeString(out, target.getName());
+		List<? extends DebugThread> threads = target.getThreads();
+		out.writeInt(threads.size());
+		for (DebugThread thread : threads)
+			writeThread(thread);
+		int count = 0;
+		while (!pendingObjects.isEmpty())
+			writeObject(pendingObjects.removeFirst(), count++ < Settings.exportMaxObjects);
+		int indexOffset = position();
+		out.writeInt(offsets.keys.length);
+		for (int i = 0; i < offsets.keys.length; i++) {
+			Integer offset = (Integer)offsets.values[i];
+			out.writeLong(offset == null ? 0 : offsets.keys[i]);
+			out.writeInt(offset == null ? 0 : offset);
+		}
+		out.writeInt(indexOffset);
+		out.flush();
+		position();
+		return count;
+	}
+
+	/** Throws if the file has grown beyond what a {@link SnapshotFile} can map. */
+	int position() throws IOException {
+		int position = out.size();
+		if (position == Integer.MAX_VALUE)
+			throw new IOException("The machine state does not fit in a snapshot file.");
+		return position;
+	}
+
+	static void writeString(DataOutputStream out, String string) throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/** The frames of system threads, which are not shown, are not written. */
+	void writeThread(DebugThread thread) throws IOException, DebugReadException {
+		writeString(out, thread.getName());
+		boolean system = thread.isSystemThread();
+		out.writeBoolean(system);
+		if (system) {
+			out.writeInt(0);
+			return;
+		}
+		List<? extends DebugFrame> frames = thread.getFrames();
+		out.writeInt(frames.size());
+		for (DebugFrame frame : frames)
+			writeFrame(frame);
+	}
+
+	void writeFrame(DebugFrame frame) throws IOException, DebugReadException {
+		String declaringTypeName = frame.getDeclaringTypeName();
+		writeString(out, declaringTypeName);
+		if (declaringTypeName != null) {
+			writeString(out, frame.getMethodName());
+			List<String> argumentTypeNames = frame.getArgumentTypeNames();
+			out.writeInt(argumentTypeNames.size());
+			for (String argumentTypeName : argumentTypeNames)
+				writeString(out, argumentTypeName);
+		} else
+			writeString(out, frame.getName());
+		out.writeInt(frame.getLineNumber());
+		writeVariables(out, frame.getVariables());
+	}
+
+	/** Static variables are not shown, so they are not written. */
+	void writeVariables(DataOutputStream out, List<? extends DebugVariable> variables) throws IOException, DebugReadException {
+		List<DebugVariable> written = new ArrayList<>(variables.size());
+		for (DebugVariable variable : variables)
+			if (!variable.isStatic())
+				written.add(variable);
+		out.writeInt(written.size());
+		for (DebugVariable variable : written) {
+			writeString(out, variable.getName());
+			writeString(out, variable.getReferenceTypeName());
+			writeValue(out, variable.getValue());
+		}
+	}
+
+	void writeValue(DataOutputStream out, DebugValue value) throws IOException, DebugReadException {
+		if (value.isObject()) {
+			long id = value.getUniqueId();
+			out.writeByte(SnapshotFile.OBJECT);
+			out.writeLong(id);
+			if (!offsets.containsKey(id)) {
+				offsets.put(id, 0);
+				pendingObjects.addLast(value);
+			}
+		} else {
+			out.writeByte(SnapshotFile.PRIMITIVE);
+			writeString(out, value.getValueString());
+		}
+	}
+
+	/** Objects beyond {@link Settings#exportMaxObjects} are written without their contents. */
+	void writeObject(DebugValue object, boolean read) throws IOException, DebugReadException {
+		long id = object.getUniqueId();
+		String typeName = object.getTypeName();
+		offsets.put(id, position());
+		out.writeLong(id);
+		if (!read) {
+			out.writeByte(SnapshotFile.UNREAD);
+			writeString(out, typeName);
+		} else if (object.isArray()) {
+			out.writeByte(SnapshotFile.ARRAY);
+			writeString(out, typeName);
+			int length = object.getArrayLength();
+			out.writeInt(length);
+			// Each chunk is preceded by its size, so that the reader can skip to the window it needs
+			ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream();
+			DataOutputStream chunk = new DataOutputStream(chunkBytes);
+			for (int offset = 0; offset < length; offset += SnapshotFile.ARRAY_CHUNK) {
+				int count = Math.min(SnapshotFile.ARRAY_CHUNK, length - offset);
+				for (DebugValue element : object.getArrayElements(offset, count))
+					writeValue(chunk, element);
+				chunk.flush();
+				out.writeInt(chunkBytes.size());
+				chunkBytes.writeTo(out);
+				chunkBytes.reset();
+			}
+		} else if (typeName.equals("java.lang.String")) {
+			out.writeByte(SnapshotFile.STRING);
+			writeString(out, typeName);
+			writeString(out, object.getValueString());
+		} else {
+			out.writeByte(SnapshotFile.FIELDS);
+			writeString(out, typeName);
+			writeVariables(out, object.getFields());
+		}
+	}
+
+}
@@ -0,0 +1,483 @@
+package io.github.btj.jvis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A machine state written by a {@link SnapshotExporter}, read back as a {@link DebugValueSource}, so that
+ * {@link SnapshotBuilder}s replay it as if it were a suspended target. The file is memory-mapped rather than
+ * read, and an object is only decoded when a builder reads it, i.e. when it is within the budget of a
+ * snapshot or the user expands it. Only the threads and their frames are decoded when the file is opened.
+ *
+ * The format, big-endian, where a string is its length in bytes, or -1 for {@code null}, followed by its UTF-8 bytes:
+ * <pre>
+ * file      := MAGIC VERSION targetName:string threadCount:int thread* object* index indexOffset:int
+ * thread    := name:string isSystem:boolean frameCount:int frame*         (innermost first; none for system threads)
+ * frame     := declaringTypeName:string (methodName:string argumentCount:int argumentTypeName:string* | name:string)
+ *              lineNumber:int variables                                 (the name if the type name is null)
+ * variables := count:int (name:string referenceTypeName:string value)*    (non-static ones only)
+ * value     := PRIMITIVE valueString:string | OBJECT id:long
+ * object    := id:long (FIELDS typeName:string variables | ARRAY typeName:string length:int chunk*
+ *                      | STRING typeName:string value:string | UNREAD typeName:string)
+ * chunk     := size:int value*                                           ({@link #ARRAY_CHUNK} elements, except the last)
+ * index     := capacity:int (id:long offset:int)*                        (a {@link LongObjectMap} table; offset 0 is a free slot)
+ * </pre>
+ * Files are limited to 2 GB, the most that one mapping can hold.
+ */
+class SnapshotFile implements DebugValueSource {
+
+	static final int MAGIC = 0x4A564953; // "JVIS"
+	static final int VERSION = 1;
+
+	static final byte PRIMITIVE = 0;
+	static final byte OBJECT = 1;
+
+	static final byte FIELDS = 0;
+	static final byte ARRAY = 1;
+	static final byte STRING = 2;
+	/** An object beyond {@link Settings#exportMaxObjects}; it has no fields. */
+	static final byte UNREAD = 3;
+
+	static final int ARRAY_CHUNK = 1024;
+
+	final Path path;
+	/** Shared by the builder's workers, so only ever read with absolute gets or through duplicates. */
+	final ByteBuffer buffer;
+	final int indexOffset;
+	final int indexCapacity;
+	final FileTarget target;
+
+	SnapshotFile(Path path) throws IOException {
+		this.path = path;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException(path + " is too large to open.");
+			// The mapping stays valid after the channel is closed
+			buffer = channel.map(MapMode.READ_ONLY, 0, size);
+		}
+		try {
+			Cursor cursor = new Cursor(0);
+			if (buffer.limit() < 12 || cursor.readInt() != MAGIC)
+				throw new IOException(path + " is not a machine state file.");
+			if (cursor.readInt() != VERSION)
+				throw new IOException(path + " was written by another version of JVis.");
+			indexOffset = buffer.getInt(buffer.limit() - 4);
+			indexCapacity = buffer.getInt(indexOffset);
+			if (Integer.bitCount(indexCapacity) != 1)
+				throw new IOException(path + " is corrupt.");
+			target = new FileTarget(cursor);
+		} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new IOException(path + " is corrupt.", e);
+		}
+	}
+
+	@Override
+	public List<FileTarget> getTargets() {
+		return Collections.singletonList(target);
+	}
+
+	/** Returns the offset of the record of the given object, or 0 if the file has none. */
+	int find(long id) {
+		int mask = indexCapacity - 1;
+		for (int slot = LongObjectMap.hash(id) & mask; ; slot = (slot + 1) & mask) {
+			int entry = indexOffset + 4 + slot * 12;
+			int offset = buffer.getInt(entry + 8);
+			if (offset == 0 || buffer.getLong(entry) == id)
+				return offset;
+		}
+	}
+
+	/** A position in the file and the decoding of what follows it. */
+	class Cursor {
+
+		int position;
+
+		Cursor(int position) {
+			this.position = position;
+		}
+
+		byte readByte() {
+			return buffer.get(position++);
+		}
+
+		boolean readBoolean() {
+			return readByte() != 0;
+		}
+
+		int readInt() {
+			int result = buffer.getInt(position);
+			position += 4;
+			return result;
+		}
+
+		long readLong() {
+			long result = buffer.getLong(position);
+			position += 8;
+			return result;
+		}
+
+		String readString() {
+			int length = readInt();
+			if (length < 0)
+				return null;
+			byte[] bytes = new byte[length];
+			ByteBuffer duplicate = buffer.duplicate();
+			duplicate.position(position);
+			duplicate.get(bytes);
+			position += length;
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		DebugValue readValue() {
+			if (readByte() == OBJECT)
+				return new FileObject(readLong());
+			return new FilePrimitive(readString());
+		}
+
+		void skipValue() {
+			if (readByte() == OBJECT)
+				position += 8;
+			else {
+				int length = readInt();
+				if (length > 0)
+					position += length;
+			}
+		}
+
+		List<FileVariable> readVariables() {
+			int count = readInt();
+			List<FileVariable> result = new ArrayList<>(count);
+			for (int i = 0; i < count; i++)
+				result.add(new FileVariable(readString(), readString(), readValue()));
+			return result;
+		}
+
+	}
+
+	class FileTarget implements DebugTarget {
+
+		final String name;
+		final List<FileThread> threads = new ArrayList<>();
+
+		FileTarget(Cursor cursor) {
+			name = cursor.readString();
+			int count = cursor.readInt();
+			for (int i = 0; i < count; i++)
+				threads.add(new FileThread(cursor));
+		}
+
+		@Override
+		public Object getKey() {
+			return this;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public List<FileThread> getThreads() {
+			return threads;
+		}
+
+	}
+
+	class FileThread implements DebugThread {
+
+		final String name;
+		final boolean system;
+		final List<FileFrame> frames = new ArrayList<>();
+
+		FileThread(Cursor cursor) {
+			name = cursor.readString();
+			system = cursor.readBoolean();
+			int count = cursor.readInt();
+			for (int i = 0; i < count; i++)
+				frames.add(new FileFrame(cursor));
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public Object getKey() {
+			return this;
+		}
+
+		@Override
+		public boolean isSystemThread() {
+			return system;
+		}
+
+		/** The file never changes. */
+		@Override
+		public long getChangeCount() {
+			return 0;
+		}
+
+		@Override
+		public List<FileFrame> getFrames() {
+			return frames;
+		}
+
+	}
+
+	class FileFrame implements DebugFrame {
+
+		final String declaringTypeName;
+		final String methodName;
+		final List<String> argumentTypeNames = new ArrayList<>();
+		final String name;
+		final int lineNumber;
+		final List<FileVariable> variables;
+
+		FileFrame(Cursor cursor) {
+			declaringTypeName = cursor.readString();
+			if (declaringTypeName != null) {
+				methodName = cursor.readString();
+				int count = cursor.readInt();
+				for (int i = 0; i < count; i++)
+					argumentTypeNames.add(cursor.readString());
+				name = null;
+			} else {
+				methodName = null;
+				name = cursor.readString();
+			}
+			lineNumber = cursor.readInt();
+			variables = cursor.readVariables();
+		}
+
+		@Override
+		public Object getKey() {
+			return this;
+		}
+
+		@Override
+		public String getDeclaringTypeName() {
+			return declaringTypeName;
+		}
+
+		@Override
+		public String getMethodName() {
+			return methodName;
+		}
+
+		@Override
+		public List<String> getArgumentTypeNames() {
+			return argumentTypeNames;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public int getLineNumber() {
+			return lineNumber;
+		}
+
+		@Override
+		public List<FileVariable> getVariables() {
+			return variables;
+		}
+
+	}
+
+	static class FileVariable implements DebugVariable {
+
+		final String name;
+		final String referenceTypeName;
+		final DebugValue value;
+
+		FileVariable(String name, String referenceTypeName, DebugValue value) {
+			this.name = name;
+			this.referenceTypeName = referenceTypeName;
+			this.value = value;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean isStatic() {
+			return false;
+		}
+
+		@Override
+		public String getReferenceTypeName() {
+			return referenceTypeName;
+		}
+
+		@Override
+		public DebugValue getValue() {
+			return value;
+		}
+
+	}
+
+	static class FilePrimitive implements DebugValue {
+
+		final String valueString;
+
+		FilePrimitive(String valueString) {
+			this.valueString = valueString;
+		}
+
+		@Override
+		public boolean isObject() {
+			return false;
+		}
+
+		@Override
+		public long getUniqueId() {
+			return VariableSnapshot.NO_OBJECT;
+		}
+
+		@Override
+		public String getTypeName() {
+			return null;
+		}
+
+		@Override
+		public String getValueString() {
+			return valueString;
+		}
+
+		@Override
+		public boolean isArray() {
+			return false;
+		}
+
+		@Override
+		public int getArrayLength() {
+			return 0;
+		}
+
+		@Override
+		public List<DebugValue> getArrayElements(int offset, int count) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public List<DebugVariable> getFields() {
+			return Collections.emptyList();
+		}
+
+	}
+
+	/** Decodes the header of its record when first asked anything beyond its id, and the rest of it on each request. */
+	class FileObject implements DebugValue {
+
+		final long id;
+		byte kind;
+		/** Where the record continues after the type name. */
+		int contentsOffset;
+		/** Set last, once the header is decoded. */
+		volatile String typeName;
+
+		FileObject(long id) {
+			this.id = id;
+		}
+
+		void decode() throws DebugReadException {
+			if (typeName != null)
+				return;
+			int offset = find(id);
+			if (offset == 0)
+				throw new DebugReadException("Object " + id + " is missing from " + path + ".", null);
+			Cursor cursor = new Cursor(offset + 8);
+			kind = cursor.readByte();
+			String typeName = cursor.readString();
+			contentsOffset = cursor.position;
+			this.typeName = typeName;
+		}
+
+		@Override
+		public boolean isObject() {
+			return true;
+		}
+
+		@Override
+		public long getUniqueId() {
+			return id;
+		}
+
+		@Override
+		public String getTypeName() throws DebugReadException {
+			decode();
+			return typeName;
+		}
+
+		@Override
+		public String getValueString() throws DebugReadException {
+			decode();
+			if (kind == STRING)
+				return new Cursor(contentsOffset).readString();
+			return SnapshotBuilder.chopPackageName(typeName) + " (id=" + id + ")";
+		}
+
+		/** A missing record only surfaces when the object is read. */
+		@Override
+		public boolean isArray() {
+			try {
+				decode();
+			} catch (DebugReadException e) {
+				return false;
+			}
+			return kind == ARRAY;
+		}
+
+		@Override
+		public int getArrayLength() throws DebugReadException {
+			decode();
+			return kind == ARRAY ? new Cursor(contentsOffset).readInt() : 0;
+		}
+
+		@Override
+		public List<DebugValue> getArrayElements(int offset, int count) throws DebugReadException {
+			decode();
+			Cursor cursor = new Cursor(contentsOffset);
+			int length = kind == ARRAY ? cursor.readInt() : 0;
+			if (offset < 0 || count < 0 || offset + count > length)
+				throw new IndexOutOfBoundsException("Elements " + offset + " to " + (offset + count) + " of an array of length " + length);
+			// Skip the chunks before the one that holds the first element
+			for (int chunk = 0; chunk < offset / ARRAY_CHUNK; chunk++) {
+				int size = cursor.readInt();
+				cursor.position += size;
+			}
+			List<DebugValue> result = new ArrayList<>(count);
+			for (int i = offset / ARRAY_CHUNK * ARRAY_CHUNK; i < offset + count; i++) {
+				if (i % ARRAY_CHUNK == 0)
+					cursor.readInt();
+				if (i < offset)
+					cursor.skipValue();
+				else
+					result.add(cursor.readValue());
+			}
+			return result;
+		}
+
+		@Override
+		public List<? extends DebugVariable> getFields() throws DebugReadException {
+			decode();
+			return kind == FIELDS ? new Cursor(contentsOffset).readVariables() : Collections.emptyList();
+		}
+
+	}
+
+}
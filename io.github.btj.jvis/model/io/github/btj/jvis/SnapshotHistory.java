@@ -0,0 +1,85 @@
+package io.github.btj.jvis;
+
+import java.util.ArrayList;
+
+/**
+ * The most recent snapshots, so that the user can look back at earlier machine states without
+ * asking the target. Consecutive snapshots share the threads, frames, objects and variables that
+ * did not change, and the parts of their maps of objects and of their layouts that did not change
+ * (see {@link Snapshot}), so each snapshot kept costs about what changed in its step. Objects that
+ * are only in the history drop their {@link ObjectSnapshot#source}.
+ *
+ * Only to be used on the UI thread, except for reading {@link #latest}.
+ */
+class SnapshotHistory {
+
+	final int capacity;
+	/** Oldest first. */
+	final ArrayList<Snapshot> snapshots = new ArrayList<>();
+	/** The index of the snapshot shown, or -1 if the history is empty. */
+	int position = -1;
+	/** The most recent snapshot, which later snapshots are built on; {@code null} if the history is empty. */
+	volatile Snapshot latest;
+
+	SnapshotHistory(int capacity) {
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * Adds the given snapshot, and makes it the current one. A snapshot that only expands objects of the
+	 * latest one replaces it.
+	 */
+	void add(Snapshot snapshot) {
+		if (latest != null)
+			latest.objects.forEachRemoved(snapshot.objects, object -> object.source = null);
+		if (!snapshots.isEmpty() && snapshots.get(snapshots.size() - 1).step == snapshot.step)
+			snapshots.set(snapshots.size() - 1, snapshot);
+		else {
+			snapshots.add(snapshot);
+			if (snapshots.size() > capacity)
+				snapshots.remove(0);
+		}
+		position = snapshots.size() - 1;
+		latest = snapshot;
+	}
+
+	void clear() {
+		snapshots.clear();
+		position = -1;
+		latest = null;
+	}
+
+	Snapshot current() {
+		return position < 0 ? null : snapshots.get(position);
+	}
+
+	boolean isAtLatest() {
+		return position == snapshots.size() - 1;
+	}
+
+	/** The number of snapshots after the current one. */
+	int stepsBack() {
+		return snapshots.size() - 1 - position;
+	}
+
+	boolean canGoBack() {
+		return position > 0;
+	}
+
+	boolean canGoForward() {
+		return position < snapshots.size() - 1;
+	}
+
+	Snapshot back() {
+		if (canGoBack())
+			position--;
+		return current();
+	}
+
+	Snapshot forward() {
+		if (canGoForward())
+			position++;
+		return current();
+	}
+
+}
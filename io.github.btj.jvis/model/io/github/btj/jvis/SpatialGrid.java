@@ -0,0 +1,91 @@
+package io.github.btj.jvis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A uniform grid over the bounds of a set of elements, for finding the elements that overlap a
+ * rectangle or a point without looking at all of them. Bounds are not tracked automatically; call
+ * {@link #update(Element)} whenever an element moves or changes size. Queries do not allocate.
+ */
+class SpatialGrid {
+
+	static final int CELL_SIZE = 256;
+
+	final LongObjectMap<ArrayList<Element>> cells = new LongObjectMap<>();
+	/** The bounds each element was indexed with: x, y, width, height. */
+	final IdentityHashMap<Element, int[]> indexedBounds = new IdentityHashMap<>();
+	/** Marks the elements already reported by the current query; see {@link Element#queryStamp}. */
+	int queryStamp;
+
+	static long cellKey(int column, int row) {
+		return ((long)column << 32) | (row & 0xffffffffL);
+	}
+
+	static int cellOf(int coordinate) {
+		return Math.floorDiv(coordinate, CELL_SIZE);
+	}
+
+	void update(Element element) {
+		int[] bounds = indexedBounds.get(element);
+		if (bounds != null && bounds[0] == element.x && bounds[1] == element.y && bounds[2] == element.width && bounds[3] == element.height)
+			return;
+		remove(element);
+		bounds = new int[] {element.x, element.y, element.width, element.height};
+		indexedBounds.put(element, bounds);
+		for (int column = cellOf(element.x); column <= cellOf(element.x + element.width); column++)
+			for (int row = cellOf(element.y); row <= cellOf(element.y + element.height); row++) {
+				long key = cellKey(column, row);
+				ArrayList<Element> cell = cells.get(key);
+				if (cell == null) {
+					cell = new ArrayList<>();
+					cells.put(key, cell);
+				}
+				cell.add(element);
+			}
+	}
+
+	void remove(Element element) {
+		int[] bounds = indexedBounds.remove(element);
+		if (bounds == null)
+			return;
+		for (int column = cellOf(bounds[0]); column <= cellOf(bounds[0] + bounds[2]); column++)
+			for (int row = cellOf(bounds[1]); row <= cellOf(bounds[1] + bounds[3]); row++) {
+				long key = cellKey(column, row);
+				ArrayList<Element> cell = cells.get(key);
+				cell.remove(element);
+				if (cell.isEmpty())
+					cells.remove(key);
+			}
+	}
+
+	/** Returns the elements in the cell containing the given point; these may or may not contain the point. */
+	List<Element> candidatesAt(int x, int y) {
+		ArrayList<Element> cell = cells.get(cellKey(cellOf(x), cellOf(y)));
+		return cell == null ? Collections.emptyList() : cell;
+	}
+
+	/**
+	 * Replaces the contents of {@code result} with the elements whose indexed bounds, including their
+	 * right and bottom edges, intersect the given rectangle.
+	 */
+	void query(int x, int y, int width, int height, ArrayList<Element> result) {
+		result.clear();
+		int stamp = ++queryStamp;
+		for (int column = cellOf(x); column <= cellOf(x + width); column++)
+			for (int row = cellOf(y); row <= cellOf(y + height); row++) {
+				ArrayList<Element> cell = cells.get(cellKey(column, row));
+				if (cell != null)
+					for (int i = 0, n = cell.size(); i < n; i++) {
+						Element element = cell.get(i);
+						if (element.queryStamp != stamp && element.x <= x + width && x <= element.x + element.width && element.y <= y + height && y <= element.y + element.height) {
+							element.queryStamp = stamp;
+							result.add(element);
+						}
+					}
+			}
+	}
+
+}
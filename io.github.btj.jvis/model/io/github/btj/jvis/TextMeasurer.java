@@ -0,0 +1,25 @@
+package io.github.btj.jvis;
+
+/**
+ * Measures text for the layout. On screen, this is the canvas's {@code TextExtentCache};
+ * elsewhere, any approximation will do.
+ */
+interface TextMeasurer {
+
+	/** The returned extent may be shared and must not be modified. */
+	Extent stringExtent(String text);
+
+}
+
+/** The size of a piece of text, in pixels. */
+class Extent {
+
+	final int width;
+	final int height;
+
+	Extent(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+}
@@ -0,0 +1,46 @@
+package io.github.btj.jvis;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.debug.core.DebugException;
+import org.eclipse.jdt.debug.core.IJavaArray;
+import org.eclipse.jdt.debug.core.IJavaValue;
+
+/**
+ * Caches the elements of arrays in slices of {@link Settings#arrayWindow} elements, keyed by
+ * the array's unique id, so that scrolling back and forth through an array does not read the
+ * same elements twice. The contents of an array may change whenever the target runs, so the
+ * cache must be cleared at every suspend.
+ */
+class ArraySliceCache {
+
+	final ConcurrentHashMap<Long, ConcurrentHashMap<Integer, IJavaValue[]>> slices = new ConcurrentHashMap<>();
+
+	void clear() {
+		slices.clear();
+	}
+
+	/**
+	 * Returns elements {@code offset} to {@code offset + count} of the given array, which is of length {@code length}.
+	 */
+	IJavaValue[] getValues(long id, IJavaArray array, int length, int offset, int count) throws DebugException {
+		ConcurrentHashMap<Integer, IJavaValue[]> arraySlices = slices.computeIfAbsent(id, k -> new ConcurrentHashMap<>());
+		int sliceSize = Settings.arrayWindow;
+		IJavaValue[] result = new IJavaValue[count];
+		int index = offset;
+		while (index < offset + count) {
+			int slice = index / sliceSize;
+			int sliceStart = slice * sliceSize;
+			IJavaValue[] values = arraySlices.get(slice);
+			if (values == null || values.length != Math.min(sliceSize, length - sliceStart)) {
+				values = JdiValues.getArrayValues(array, sliceStart, Math.min(sliceSize, length - sliceStart));
+				arraySlices.put(slice, values);
+			}
+			int n = Math.min(offset + count, sliceStart + values.length) - index;
+			System.arraycopy(values, index - sliceStart, result, index - offset, n);
+			index += n;
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,225 @@
+package io.github.btj.jvis;
+
+import java.util.ArrayList;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.GC;
+
+import io.github.btj.jvis.MachineModel.CallStack;
+import io.github.btj.jvis.MachineModel.CloseButton;
+import io.github.btj.jvis.MachineModel.Heap;
+import io.github.btj.jvis.MachineModel.JavaObject;
+import io.github.btj.jvis.MachineModel.ReturnFrame;
+import io.github.btj.jvis.MachineModel.StackFrame;
+import io.github.btj.jvis.MachineModel.Variable;
+
+/**
+ * Paints the elements of a {@link MachineModel} with SWT.
+ */
+class ElementPainter {
+
+	/** Objects and stack frames as plain filled boxes, and arrows as lines without heads. */
+	static final int DETAIL_BOXES = 0;
+	/** Objects and stack frames with their titles, but without their variables. */
+	static final int DETAIL_TITLES = 1;
+	static final int DETAIL_FULL = 2;
+
+	final MachineModel model;
+	final Color objectColor;
+	final Color changedColor;
+	/** The objects being painted; reused by every paint pass. */
+	final ArrayList<Element> visible = new ArrayList<>();
+
+	ElementPainter(MachineModel model, Color objectColor, Color changedColor) {
+		this.model = model;
+		this.objectColor = objectColor;
+		this.changedColor = changedColor;
+	}
+
+	/** Returns how much to paint at the given zoom; text that would be too small to read is left out. */
+	static int detailAt(double zoom) {
+		if (zoom * 100 < Settings.textMinZoom)
+			return DETAIL_BOXES;
+		if (zoom * 100 < Settings.variablesMinZoom)
+			return DETAIL_TITLES;
+		return DETAIL_FULL;
+	}
+
+	/**
+	 * Paints the model's elements and the arrows it collected last, so {@link MachineModel#collectArrows} must be called
+	 * after the model changed; the origin of the paint context must be that of the root element.
+	 */
+	void paint(PaintContext pc) {
+		paintChildren(pc, model.root);
+		paintArrows(pc, model.arrows);
+	}
+
+	void paintElement(PaintContext pc, Element element) {
+		if (element instanceof Variable)
+			paintVariable(pc, (Variable)element);
+		else if (element instanceof StackFrame)
+			paintStackFrame(pc, (StackFrame)element);
+		else if (element instanceof ReturnFrame)
+			paintReturnFrame(pc, (ReturnFrame)element);
+		else if (element instanceof JavaObject)
+			paintJavaObject(pc, (JavaObject)element);
+		else if (element instanceof CloseButton)
+			paintCloseButton(pc, (CloseButton)element);
+		else if (element instanceof Heap)
+			paintHeap(pc, (Heap)element);
+		else if (element instanceof CallStack)
+			paintCallStack(pc, (CallStack)element);
+		else
+			paintChildren(pc, element);
+	}
+
+	void paintChildren(PaintContext pc, Element element) {
+		// Paint in reverse order, so that the first child is on top
+		for (Element child = element.firstChild.previousSibling; child != element.firstChild; child = child.previousSibling) {
+			if (!pc.intersects(child.x, child.y, child.width, child.height))
+				continue;
+			pc.translate(child.x, child.y);
+			paintElement(pc, child);
+			pc.translate(-child.x, -child.y);
+		}
+	}
+
+	void paintVariable(PaintContext pc, Variable variable) {
+		GC gc = pc.gc;
+		VariablesTable table = variable.table;
+		gc.drawString(variable.name, table.namesWidth - variable.nameExtent.width - Variable.INNER_PADDING, Variable.PADDING);
+		Color oldBackground = pc.background;
+		pc.setBackground(variable.changedInStep == model.snapshot.step ? changedColor : gc.getDevice().getSystemColor(SWT.COLOR_WHITE));
+		gc.fillRectangle(table.namesWidth + 2, 0, table.valuesWidth - 2, variable.height);
+		if (variable.value instanceof String || ((JavaObject)variable.value).parent == null) {
+			gc.drawString(variable.valueString, table.namesWidth + Variable.INNER_PADDING, Variable.PADDING);
+		}
+		pc.setBackground(oldBackground);
+	}
+
+	void paintReturnFrame(PaintContext pc, ReturnFrame frame) {
+		GC gc = pc.gc;
+		pc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_GRAY));
+		gc.fillRectangle(0, 0, frame.width, frame.height);
+		if (pc.detail == DETAIL_BOXES)
+			return;
+		gc.drawRectangle(0, 0, frame.width, frame.height);
+		if (pc.detail == DETAIL_FULL)
+			paintChildren(pc, frame);
+	}
+
+	void paintStackFrame(PaintContext pc, StackFrame frame) {
+		GC gc = pc.gc;
+		pc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_GREEN));  //active ? SWT.COLOR_YELLOW : SWT.COLOR_GREEN));
+		gc.fillRectangle(0, 0, frame.width, frame.height);
+		if (pc.detail == DETAIL_BOXES)
+			return;
+		int oldWidth = gc.getLineWidth();
+		if (frame.active)
+			gc.setLineWidth(2);
+		gc.drawRectangle(0, 0, frame.width, frame.height);
+		gc.setLineWidth(oldWidth);
+		gc.drawString(frame.method, (frame.width - frame.methodExtent.width) / 2 , StackFrame.BORDER + StackFrame.PADDING);
+		if (pc.detail == DETAIL_FULL)
+			paintChildren(pc, frame);
+	}
+
+	void paintCallStack(PaintContext pc, CallStack stack) {
+		GC gc = pc.gc;
+		if (pc.detail != DETAIL_BOXES)
+			gc.drawString(stack.name, (stack.width - stack.nameExtent.width) / 2, MachineModel.OUTER_MARGIN);
+		paintChildren(pc, stack);
+	}
+
+	void paintCloseButton(PaintContext pc, CloseButton button) {
+		GC gc = pc.gc;
+		if (button.parent.mouseInside) {
+			gc.drawLine(0, 0, button.width, button.height);
+			gc.drawLine(0, button.height, button.width, 0);
+		}
+	}
+
+	void paintJavaObject(PaintContext pc, JavaObject object) {
+		GC gc = pc.gc;
+		int width = object.width;
+		int height = object.height;
+		Color oldBackground = pc.background;
+		pc.setBackground(objectColor);
+		if (pc.detail == DETAIL_BOXES) {
+			gc.fillRectangle(0, 0, width, height);
+			pc.setBackground(oldBackground);
+			return;
+		}
+		gc.fillRoundRectangle(0, 0, width, height, 10, 10);
+		if (object.state.isStub()) {
+			// Not read yet; double-click to expand
+			gc.setLineStyle(SWT.LINE_DASH);
+			gc.drawRoundRectangle(0, 0, width, height, 10, 10);
+			gc.setLineStyle(SWT.LINE_SOLID);
+		} else
+			gc.drawRoundRectangle(0, 0, width, height, 10, 10);
+		gc.drawString(object.title, JavaObject.BORDER + JavaObject.PADDING, JavaObject.BORDER + JavaObject.PADDING);
+		if (pc.detail != DETAIL_FULL) {
+			pc.setBackground(oldBackground);
+			return;
+		}
+		paintChildren(pc, object);
+		ObjectSnapshot state = object.state;
+		if (state.isArray() && state.arrayLength > state.fields.size()) {
+			// Scroll indicator; the mouse wheel scrolls through the elements
+			int trackTop = JavaObject.BORDER + JavaObject.PADDING + object.titleExtent.height + JavaObject.PADDING;
+			int trackHeight = height - trackTop - JavaObject.BORDER - JavaObject.PADDING;
+			int thumbTop = trackTop + (int)((long)trackHeight * state.arrayOffset / state.arrayLength);
+			int thumbHeight = Math.max(4, (int)((long)trackHeight * state.fields.size() / state.arrayLength));
+			pc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_DARK_GRAY));
+			gc.fillRectangle(width - JavaObject.BORDER - 3, thumbTop, 2, thumbHeight);
+		}
+		pc.setBackground(oldBackground);
+	}
+
+	void paintHeap(PaintContext pc, Heap heap) {
+		heap.index.query(pc.clipX, pc.clipY, pc.clipWidth, pc.clipHeight, visible);
+		// Paint back to front. Insertion sort, since List.sort allocates for all but the smallest lists.
+		for (int i = 1, n = visible.size(); i < n; i++) {
+			Element child = visible.get(i);
+			int j = i;
+			for (; j > 0 && visible.get(j - 1).z > child.z; j--)
+				visible.set(j, visible.get(j - 1));
+			visible.set(j, child);
+		}
+		for (int i = 0, n = visible.size(); i < n; i++) {
+			Element child = visible.get(i);
+			pc.translate(child.x, child.y);
+			paintElement(pc, child);
+			pc.translate(-child.x, -child.y);
+		}
+		visible.clear();
+	}
+
+	/**
+	 * Paints the arrows that cross the clipping rectangle. Each tile is painted separately, so the arrows
+	 * are drawn line by line rather than through {@code Path}s, which would have to be allocated natively
+	 * for every tile. Arrowheads are left out at {@link #DETAIL_BOXES}.
+	 */
+	void paintArrows(PaintContext pc, Arrows arrows) {
+		GC gc = pc.gc;
+		boolean withHeads = pc.detail != DETAIL_BOXES;
+		Color oldBackground = pc.background;
+		if (withHeads)
+			pc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_BLACK));
+		int drawn = 0;
+		for (int i = 0; i < arrows.size; i++) {
+			if (!arrows.intersects(i, pc.clipX, pc.clipY, pc.clipWidth, pc.clipHeight) || !arrows.layOut(i))
+				continue;
+			drawn++;
+			int[] polygon = arrows.polygon;
+			gc.drawLine(arrows.fromX[i], arrows.fromY[i], polygon[0], polygon[1]);
+			if (withHeads)
+				gc.fillPolygon(polygon);
+		}
+		pc.setBackground(oldBackground);
+		Metrics.count(Metrics.Counter.ARROWS_DRAWN, drawn);
+	}
+
+}
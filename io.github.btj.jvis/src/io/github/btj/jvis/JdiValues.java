@@ -0,0 +1,162 @@
+package io.github.btj.jvis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.debug.core.DebugException;
+import org.eclipse.debug.core.model.IVariable;
+import org.eclipse.jdt.debug.core.IJavaArray;
+import org.eclipse.jdt.debug.core.IJavaObject;
+import org.eclipse.jdt.debug.core.IJavaValue;
+import org.eclipse.jdt.internal.debug.core.model.JDIDebugTarget;
+import org.eclipse.jdt.internal.debug.core.model.JDIObjectValue;
+import org.eclipse.jdt.internal.debug.core.model.JDIValue;
+
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.ByteValue;
+import com.sun.jdi.CharValue;
+import com.sun.jdi.Field;
+import com.sun.jdi.IntegerValue;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.Value;
+
+/**
+ * Reads values in bulk through JDI where the JDT debug model would otherwise perform one
+ * round-trip per value. JDI is reached through JDT internals, so each method falls back to the
+ * public debug model API if those are not available.
+ */
+class JdiValues {
+
+	static boolean jdiAvailable = true;
+
+	/** An instance field of an object, together with its value. */
+	static class FieldValue {
+		final String name;
+		final String typeName;
+		final String declaringTypeName;
+		final IJavaValue value;
+
+		FieldValue(String name, String typeName, String declaringTypeName, IJavaValue value) {
+			this.name = name;
+			this.typeName = typeName;
+			this.declaringTypeName = declaringTypeName;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Returns elements {@code offset} to {@code offset + length} of the given array,
+	 * in a single round-trip if possible.
+	 */
+	static IJavaValue[] getArrayValues(IJavaArray array, int offset, int length) throws DebugException {
+		if (jdiAvailable && array instanceof JDIObjectValue && array.getDebugTarget() instanceof JDIDebugTarget) {
+			try {
+				List<Value> values = ((ArrayReference)((JDIObjectValue)array).getUnderlyingObject()).getValues(offset, length);
+				IJavaValue[] result = new IJavaValue[length];
+				for (int i = 0; i < length; i++)
+					result[i] = JDIValue.createValue((JDIDebugTarget)array.getDebugTarget(), values.get(i));
+				return result;
+			} catch (LinkageError e) {
+				jdiAvailable = false;
+			} catch (RuntimeException e) {
+				// E.g. an ObjectCollectedException or a VMDisconnectedException; let the debug model report it
+			}
+		}
+		IVariable[] variables = array.getVariables(offset, length);
+		IJavaValue[] result = new IJavaValue[length];
+		for (int i = 0; i < length; i++)
+			result[i] = (IJavaValue)variables[i].getValue();
+		return result;
+	}
+
+	/**
+	 * Returns the instance fields of the given object with their values, read in a single round-trip,
+	 * or {@code null} if JDI is not available; the debug model reads each field's value separately.
+	 * The fields are those of {@code ReferenceType.allFields()}, which JDI caches per type.
+	 */
+	static List<FieldValue> getFieldValues(IJavaObject object) {
+		if (jdiAvailable && object instanceof JDIObjectValue && object.getDebugTarget() instanceof JDIDebugTarget) {
+			try {
+				ObjectReference reference = ((JDIObjectValue)object).getUnderlyingObject();
+				List<Field> fields = new ArrayList<>();
+				for (Field field : reference.referenceType().allFields())
+					if (!field.isStatic())
+						fields.add(field);
+				Map<Field, Value> values = reference.getValues(fields);
+				JDIDebugTarget target = (JDIDebugTarget)object.getDebugTarget();
+				List<FieldValue> result = new ArrayList<>(fields.size());
+				for (Field field : fields)
+					result.add(new FieldValue(field.name(), field.typeName(), field.declaringType().name(), JDIValue.createValue(target, values.get(field))));
+				return result;
+			} catch (LinkageError e) {
+				jdiAvailable = false;
+			} catch (RuntimeException e) {
+				// Let the debug model try, and report any problem
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the first {@code maxLength} characters of the given {@code java.lang.String} and its length, reading
+	 * only those characters from its {@code value} array, or {@code null} if JDI is not available or the string is
+	 * not laid out as expected. Up to Java 8, the array holds the characters. Since Java 9, it holds one byte per
+	 * character if {@code coder} is 0, and two otherwise, in the order given by {@code StringUTF16.HI_BYTE_SHIFT}.
+	 */
+	static StringPrefix getStringPrefix(IJavaObject string, int maxLength) {
+		if (!jdiAvailable || !(string instanceof JDIObjectValue))
+			return null;
+		try {
+			ObjectReference reference = ((JDIObjectValue)string).getUnderlyingObject();
+			ReferenceType type = reference.referenceType();
+			Field valueField = type.fieldByName("value");
+			Field coderField = type.fieldByName("coder");
+			if (valueField == null)
+				return null;
+			Map<Field, Value> values = reference.getValues(coderField == null ? Arrays.asList(valueField) : Arrays.asList(valueField, coderField));
+			if (!(values.get(valueField) instanceof ArrayReference))
+				return null;
+			ArrayReference array = (ArrayReference)values.get(valueField);
+			int arrayLength = array.length();
+			Value coder = coderField == null ? null : values.get(coderField);
+			StringBuilder prefix = new StringBuilder();
+			int length;
+			if (coder == null) {
+				length = arrayLength;
+				for (Value c : array.getValues(0, Math.min(maxLength, length)))
+					prefix.append(((CharValue)c).value());
+			} else if (((ByteValue)coder).value() == 0) {
+				length = arrayLength;
+				for (Value b : array.getValues(0, Math.min(maxLength, length)))
+					prefix.append((char)(((ByteValue)b).value() & 0xFF));
+			} else {
+				List<ReferenceType> utf16 = reference.virtualMachine().classesByName("java.lang.StringUTF16");
+				Field shiftField = utf16.isEmpty() ? null : utf16.get(0).fieldByName("HI_BYTE_SHIFT");
+				if (shiftField == null)
+					return null;
+				// The byte at an even index is the high byte if it is shifted by 8
+				boolean bigEndian = ((IntegerValue)utf16.get(0).getValue(shiftField)).value() == 8;
+				length = arrayLength / 2;
+				List<Value> bytes = array.getValues(0, 2 * Math.min(maxLength, length));
+				for (int i = 0; i < bytes.size(); i += 2) {
+					int first = ((ByteValue)bytes.get(i)).value() & 0xFF;
+					int second = ((ByteValue)bytes.get(i + 1)).value() & 0xFF;
+					prefix.append((char)(bigEndian ? first << 8 | second : second << 8 | first));
+				}
+			}
+			// Do not cut a character in half
+			if (prefix.length() < length && prefix.length() > 0 && Character.isHighSurrogate(prefix.charAt(prefix.length() - 1)))
+				prefix.setLength(prefix.length() - 1);
+			return new StringPrefix(prefix.toString(), length);
+		} catch (LinkageError e) {
+			jdiAvailable = false;
+		} catch (RuntimeException e) {
+			// E.g. a ClassCastException for an unexpected layout; let the debug model read the string whole
+		}
+		return null;
+	}
+
+}
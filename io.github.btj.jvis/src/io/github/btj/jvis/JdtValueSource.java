@@ -0,0 +1,536 @@
+package io.github.btj.jvis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.debug.core.DebugEvent;
+import org.eclipse.debug.core.DebugException;
+import org.eclipse.debug.core.DebugPlugin;
+import org.eclipse.debug.core.IDebugEventSetListener;
+import org.eclipse.debug.core.model.IDebugTarget;
+import org.eclipse.debug.core.model.IStackFrame;
+import org.eclipse.debug.core.model.IThread;
+import org.eclipse.debug.core.model.IValue;
+import org.eclipse.debug.core.model.IVariable;
+import org.eclipse.jdt.debug.core.IJavaArray;
+import org.eclipse.jdt.debug.core.IJavaClassObject;
+import org.eclipse.jdt.debug.core.IJavaClassType;
+import org.eclipse.jdt.debug.core.IJavaFieldVariable;
+import org.eclipse.jdt.debug.core.IJavaObject;
+import org.eclipse.jdt.debug.core.IJavaReferenceType;
+import org.eclipse.jdt.debug.core.IJavaStackFrame;
+import org.eclipse.jdt.debug.core.IJavaThread;
+import org.eclipse.jdt.debug.core.IJavaType;
+import org.eclipse.jdt.debug.core.IJavaValue;
+import org.eclipse.jdt.debug.core.IJavaVariable;
+
+/**
+ * Adapts the Eclipse debug model, as extended by JDT, to a {@link DebugValueSource}. Arrays are
+ * read through the source's {@link ArraySliceCache}. Each method that calls the debug model counts
+ * as one {@link Metrics.Counter#DEBUG_CALLS}, whether or not the model answers from its own caches.
+ *
+ * Thread change counts are derived from debug events, so the source must be registered as a
+ * debug event listener before the first snapshot.
+ */
+class JdtValueSource implements DebugValueSource, IDebugEventSetListener {
+
+	final ArraySliceCache sliceCache = new ArraySliceCache();
+	/**
+	 * The number of events other than suspends by thread or target, including those of the thread's frames.
+	 * Implicit evaluations, e.g. of {@link LogicalStructures}, are left out, since they do not change the frames.
+	 * The counts of threads and targets are dropped once they terminate.
+	 */
+	final ConcurrentHashMap<Object, Long> eventCounts = new ConcurrentHashMap<>();
+	/** The number of changes to variables, which may belong to any thread. */
+	final AtomicLong variableChanges = new AtomicLong();
+	/** Whether each class seen so far is an enum, by name, including the classes of constants with a body. */
+	final ConcurrentHashMap<String, Boolean> enumTypes = new ConcurrentHashMap<>();
+
+	static DebugReadException wrap(DebugException e) {
+		return new DebugReadException(e.getMessage(), e);
+	}
+
+	/** Returns the status to report for a failed snapshot. */
+	static IStatus getStatus(DebugReadException e) {
+		if (e.getCause() instanceof DebugException)
+			return ((DebugException)e.getCause()).getStatus();
+		return new Status(IStatus.ERROR, "io.github.btj.jvis", e.getMessage(), e);
+	}
+
+	/** Called before each snapshot, not just those that follow a suspend. */
+	void targetSuspended() {
+		// The target may have run, or the user may have changed a variable, since the previous snapshot, so array contents may have changed
+		sliceCache.clear();
+	}
+
+	@Override
+	public void handleDebugEvents(DebugEvent[] events) {
+		for (DebugEvent event : events) {
+			if (event.getKind() == DebugEvent.SUSPEND || event.getDetail() == DebugEvent.EVALUATION_IMPLICIT)
+				continue;
+			Object source = event.getSource();
+			if (source instanceof IStackFrame)
+				source = ((IStackFrame)source).getThread();
+			if (event.getKind() == DebugEvent.TERMINATE && (source instanceof IThread || source instanceof IDebugTarget)) {
+				// Its count is no longer asked for, and would keep the terminated launch reachable
+				eventCounts.remove(source);
+				if (source instanceof IDebugTarget) {
+					Object target = source;
+					eventCounts.keySet().removeIf(key -> key instanceof IThread && ((IThread)key).getDebugTarget() == target);
+				}
+			} else if (source instanceof IThread || source instanceof IDebugTarget)
+				eventCounts.merge(source, 1L, Long::sum);
+			else if (source instanceof IVariable || source instanceof IValue)
+				variableChanges.incrementAndGet();
+		}
+	}
+
+	@Override
+	public List<JdtTarget> getTargets() {
+		Metrics.count(Metrics.Counter.DEBUG_CALLS);
+		IDebugTarget[] targets = DebugPlugin.getDefault().getLaunchManager().getDebugTargets();
+		List<JdtTarget> result = new ArrayList<>(targets.length);
+		for (IDebugTarget target : targets)
+			result.add(new JdtTarget(target));
+		return result;
+	}
+
+	List<JdtVariable> variables(IVariable[] variables) {
+		List<JdtVariable> result = new ArrayList<>(variables.length);
+		for (IVariable variable : variables)
+			result.add(new JdtVariable(variable));
+		return result;
+	}
+
+	List<JdtValue> values(IJavaValue[] values) {
+		List<JdtValue> result = new ArrayList<>(values.length);
+		for (IJavaValue value : values)
+			result.add(new JdtValue(value));
+		return result;
+	}
+
+	class JdtTarget implements DebugTarget {
+
+		final IDebugTarget target;
+
+		JdtTarget(IDebugTarget target) {
+			this.target = target;
+		}
+
+		@Override
+		public Object getKey() {
+			return target;
+		}
+
+		@Override
+		public String getName() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return target.getName();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public List<JdtThread> getThreads() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			IThread[] threads;
+			try {
+				threads = target.getThreads();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+			List<JdtThread> result = new ArrayList<>(threads.length);
+			for (IThread thread : threads)
+				result.add(new JdtThread(thread));
+			return result;
+		}
+
+	}
+
+	class JdtThread implements DebugThread {
+
+		final IThread thread;
+
+		JdtThread(IThread thread) {
+			this.thread = thread;
+		}
+
+		@Override
+		public String getName() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return thread.getName();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public Object getKey() {
+			return thread;
+		}
+
+		@Override
+		public boolean isSystemThread() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return thread instanceof IJavaThread && ((IJavaThread)thread).isSystemThread();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		/** Resuming the whole target resumes the thread as well. */
+		@Override
+		public long getChangeCount() {
+			return eventCounts.getOrDefault(thread, 0L) + eventCounts.getOrDefault(thread.getDebugTarget(), 0L) + variableChanges.get();
+		}
+
+		@Override
+		public List<JdtFrame> getFrames() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			IStackFrame[] frames;
+			try {
+				frames = thread.getStackFrames();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+			List<JdtFrame> result = new ArrayList<>(frames.length);
+			for (IStackFrame frame : frames)
+				result.add(new JdtFrame(frame));
+			return result;
+		}
+
+	}
+
+	class JdtFrame implements DebugFrame {
+
+		final IStackFrame frame;
+
+		JdtFrame(IStackFrame frame) {
+			this.frame = frame;
+		}
+
+		@Override
+		public Object getKey() {
+			return frame;
+		}
+
+		@Override
+		public String getDeclaringTypeName() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return frame instanceof IJavaStackFrame ? ((IJavaStackFrame)frame).getDeclaringTypeName() : null;
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public String getMethodName() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return ((IJavaStackFrame)frame).getMethodName();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public List<String> getArgumentTypeNames() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return ((IJavaStackFrame)frame).getArgumentTypeNames();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public String getName() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return frame.getName();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public int getLineNumber() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return frame.getLineNumber();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public List<JdtVariable> getVariables() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return variables(frame.getVariables());
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+	}
+
+	class JdtVariable implements DebugVariable {
+
+		final IVariable variable;
+
+		JdtVariable(IVariable variable) {
+			this.variable = variable;
+		}
+
+		@Override
+		public String getName() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return variable.getName();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public boolean isStatic() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return variable instanceof IJavaVariable && ((IJavaVariable)variable).isStatic();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public String getReferenceTypeName() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return variable.getReferenceTypeName();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public String getDeclaringTypeName() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return variable instanceof IJavaFieldVariable ? ((IJavaFieldVariable)variable).getDeclaringType().getName() : null;
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public JdtValue getValue() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return new JdtValue(variable.getValue());
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+	}
+
+	/** An instance field whose value was read together with those of the object's other fields. */
+	class JdtField implements DebugVariable {
+
+		final JdiValues.FieldValue field;
+
+		JdtField(JdiValues.FieldValue field) {
+			this.field = field;
+		}
+
+		@Override
+		public String getName() {
+			return field.name;
+		}
+
+		@Override
+		public boolean isStatic() {
+			return false;
+		}
+
+		@Override
+		public String getReferenceTypeName() {
+			return field.typeName;
+		}
+
+		@Override
+		public String getDeclaringTypeName() {
+			return field.declaringTypeName;
+		}
+
+		@Override
+		public JdtValue getValue() {
+			return new JdtValue(field.value);
+		}
+
+	}
+
+	class JdtValue implements DebugValue {
+
+		final IValue value;
+
+		JdtValue(IValue value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean isObject() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return value instanceof IJavaObject && !((IJavaValue)value).isNull() && ((IJavaValue)value).getJavaType() instanceof IJavaReferenceType;
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public long getUniqueId() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return ((IJavaObject)value).getUniqueId();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public String getTypeName() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return ((IJavaValue)value).getJavaType().getName();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public String getValueString() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return value.getValueString();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public StringPrefix getStringPrefix(int maxLength) throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			if (value instanceof IJavaObject) {
+				StringPrefix prefix = JdiValues.getStringPrefix((IJavaObject)value, maxLength);
+				if (prefix != null)
+					return prefix;
+			}
+			return DebugValue.super.getStringPrefix(maxLength);
+		}
+
+		/** Only for the collections and maps of the JDK; see {@link LogicalStructures}. */
+		@Override
+		public LogicalStructure getLogicalStructure(int maxEntries) {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			if (!(value instanceof IJavaObject) || value instanceof IJavaArray)
+				return null;
+			LogicalStructures.Entries entries = LogicalStructures.getEntries((IJavaObject)value, maxEntries);
+			if (entries == null)
+				return null;
+			return new LogicalStructure(entries.size, entries.keys == null ? null : values(entries.keys), values(entries.values));
+		}
+
+		@Override
+		public boolean isEnumConstant() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				IJavaType type = ((IJavaValue)value).getJavaType();
+				if (!(type instanceof IJavaClassType))
+					return false;
+				Boolean isEnum = enumTypes.get(type.getName());
+				if (isEnum == null) {
+					IJavaClassType superclass = ((IJavaClassType)type).getSuperclass();
+					// A constant with a body is an instance of a subclass of the enum
+					if (superclass != null && !superclass.getName().equals("java.lang.Enum"))
+						superclass = superclass.getSuperclass();
+					isEnum = superclass != null && superclass.getName().equals("java.lang.Enum");
+					enumTypes.put(type.getName(), isEnum);
+				}
+				return isEnum;
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public String getReflectedTypeName() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return value instanceof IJavaClassObject ? ((IJavaClassObject)value).getInstanceType().getName() : null;
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public boolean isArray() {
+			return value instanceof IJavaArray;
+		}
+
+		@Override
+		public int getArrayLength() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			try {
+				return ((IJavaArray)value).getLength();
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+		@Override
+		public List<JdtValue> getArrayElements(int offset, int count) throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			IJavaValue[] values;
+			try {
+				IJavaArray array = (IJavaArray)value;
+				values = sliceCache.getValues(array.getUniqueId(), array, array.getLength(), offset, count);
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+			return values(values);
+		}
+
+		/** Reads the values of all instance fields in one round-trip if possible. */
+		@Override
+		public List<? extends DebugVariable> getFields() throws DebugReadException {
+			Metrics.count(Metrics.Counter.DEBUG_CALLS);
+			if (value instanceof IJavaObject) {
+				List<JdiValues.FieldValue> fieldValues = JdiValues.getFieldValues((IJavaObject)value);
+				if (fieldValues != null) {
+					List<JdtField> result = new ArrayList<>(fieldValues.size());
+					for (JdiValues.FieldValue fieldValue : fieldValues)
+						result.add(new JdtField(fieldValue));
+					return result;
+				}
+			}
+			try {
+				return variables(value.getVariables());
+			} catch (DebugException e) {
+				throw wrap(e);
+			}
+		}
+
+	}
+
+}
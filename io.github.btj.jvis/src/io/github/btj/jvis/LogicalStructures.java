@@ -0,0 +1,147 @@
+package io.github.btj.jvis;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.debug.core.DebugException;
+import org.eclipse.debug.core.DebugPlugin;
+import org.eclipse.debug.core.ILogicalStructureType;
+import org.eclipse.debug.core.model.IValue;
+import org.eclipse.debug.core.model.IVariable;
+import org.eclipse.jdt.debug.core.IJavaArray;
+import org.eclipse.jdt.debug.core.IJavaClassType;
+import org.eclipse.jdt.debug.core.IJavaInterfaceType;
+import org.eclipse.jdt.debug.core.IJavaObject;
+import org.eclipse.jdt.debug.core.IJavaType;
+import org.eclipse.jdt.debug.core.IJavaValue;
+
+/**
+ * Reads the entries of collections and maps through the logical structures of the Eclipse debugger, as the
+ * Variables view shows them, instead of through the objects that implement them. A logical structure is
+ * computed by evaluating an expression such as {@code entrySet().toArray()} in the target, so only the
+ * collections of the JDK are read this way; those of the program itself are shown as they are implemented.
+ */
+class LogicalStructures {
+
+	enum Kind { NONE, COLLECTION, MAP }
+
+	/** The kind of each type seen so far, by name. */
+	static final ConcurrentHashMap<String, Kind> kinds = new ConcurrentHashMap<>();
+	/** A thread can run only one evaluation at a time, and the evaluations pick the thread themselves. */
+	static final Object evaluationLock = new Object();
+
+	/** The size of a collection, its first entries, and, for a map, their keys. */
+	static class Entries {
+		final int size;
+		final IJavaValue[] keys;
+		final IJavaValue[] values;
+
+		Entries(int size, IJavaValue[] keys, IJavaValue[] values) {
+			this.size = size;
+			this.keys = keys;
+			this.values = values;
+		}
+	}
+
+	static Kind getKind(IJavaObject object) throws DebugException {
+		IJavaType type = object.getJavaType();
+		String name = type.getName();
+		Kind kind = kinds.get(name);
+		if (kind == null) {
+			kind = Kind.NONE;
+			if (name.startsWith("java.") && type instanceof IJavaClassType) {
+				for (IJavaInterfaceType anInterface : ((IJavaClassType)type).getAllInterfaces()) {
+					if (anInterface.getName().equals("java.util.Map")) {
+						kind = Kind.MAP;
+						break;
+					}
+					if (anInterface.getName().equals("java.util.Collection"))
+						kind = Kind.COLLECTION;
+				}
+			}
+			kinds.put(name, kind);
+		}
+		return kind;
+	}
+
+	/**
+	 * Returns the size and the first {@code maxEntries} entries of the given JDK collection or map, or {@code null}
+	 * if it is not one, or if its logical structure cannot be evaluated, e.g. because no thread is suspended.
+	 */
+	static Entries getEntries(IJavaObject object, int maxEntries) {
+		try {
+			Kind kind = getKind(object);
+			if (kind == Kind.NONE)
+				return null;
+			IValue structure;
+			synchronized (evaluationLock) {
+				structure = evaluate(object);
+			}
+			if (!(structure instanceof IJavaArray))
+				return null;
+			IJavaArray array = (IJavaArray)structure;
+			int size = array.getLength();
+			IJavaValue[] values = JdiValues.getArrayValues(array, 0, Math.min(size, maxEntries));
+			if (kind == Kind.COLLECTION)
+				return new Entries(size, null, values);
+			IJavaValue[] keys = new IJavaValue[values.length];
+			for (int i = 0; i < values.length; i++) {
+				IJavaValue[] entry = getEntry(values[i]);
+				if (entry == null)
+					return null;
+				keys[i] = entry[0];
+				values[i] = entry[1];
+			}
+			return new Entries(size, keys, values);
+		} catch (CoreException e) {
+			return null;
+		}
+	}
+
+	/** Returns {@code null} if the value has no logical structure. Evaluations must hold the {@link #evaluationLock}. */
+	static IValue evaluate(IValue value) throws CoreException {
+		ILogicalStructureType[] types = DebugPlugin.getLogicalStructureTypes(value);
+		if (types.length == 0)
+			return null;
+		ILogicalStructureType type = DebugPlugin.getDefaultStructureType(types);
+		return (type != null ? type : types[0]).getLogicalStructure(value);
+	}
+
+	/**
+	 * Returns the key and the value of a {@code java.util.Map.Entry}. Those of the JDK hold them in fields named
+	 * {@code key} and {@code value} or {@code val}, which are read in one round-trip; the key of others is read
+	 * from the entry's own logical structure.
+	 */
+	static IJavaValue[] getEntry(IJavaValue entry) throws CoreException {
+		if (!(entry instanceof IJavaObject) || entry.isNull())
+			return null;
+		List<JdiValues.FieldValue> fields = JdiValues.getFieldValues((IJavaObject)entry);
+		if (fields != null) {
+			IJavaValue[] result = new IJavaValue[2];
+			for (JdiValues.FieldValue field : fields) {
+				if (field.name.equals("key"))
+					result[0] = field.value;
+				else if (field.name.equals("value") || field.name.equals("val"))
+					result[1] = field.value;
+			}
+			if (result[0] != null && result[1] != null)
+				return result;
+		}
+		IValue structure;
+		synchronized (evaluationLock) {
+			structure = evaluate(entry);
+		}
+		if (structure == null)
+			return null;
+		IJavaValue[] result = new IJavaValue[2];
+		for (IVariable variable : structure.getVariables()) {
+			if (variable.getName().equals("key"))
+				result[0] = (IJavaValue)variable.getValue();
+			else if (variable.getName().equals("value"))
+				result[1] = (IJavaValue)variable.getValue();
+		}
+		return result[0] != null && result[1] != null ? result : null;
+	}
+
+}
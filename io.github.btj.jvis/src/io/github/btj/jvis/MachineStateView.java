@@ -1,34 +1,28 @@
 package io.github.btj.jvis;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 import org.eclipse.swt.widgets.Canvas;
 import org.eclipse.swt.widgets.Composite;
-import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.ScrollBar;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.stream.Collectors;
-
-import org.eclipse.debug.core.DebugException;
+import org.eclipse.debug.core.DebugEvent;
 import org.eclipse.debug.core.DebugPlugin;
 import org.eclipse.debug.core.IDebugEventSetListener;
 import org.eclipse.debug.core.model.IDebugTarget;
 import org.eclipse.debug.core.model.IStackFrame;
 import org.eclipse.debug.core.model.IThread;
-import org.eclipse.debug.core.model.IValue;
 import org.eclipse.debug.core.model.IVariable;
-import org.eclipse.jdt.debug.core.IJavaArray;
-import org.eclipse.jdt.debug.core.IJavaObject;
-import org.eclipse.jdt.debug.core.IJavaReferenceType;
-import org.eclipse.jdt.debug.core.IJavaStackFrame;
-import org.eclipse.jdt.debug.core.IJavaThread;
-import org.eclipse.jdt.debug.core.IJavaType;
-import org.eclipse.jdt.debug.core.IJavaValue;
-import org.eclipse.jdt.debug.core.IJavaVariable;
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.action.IMenuManager;
+import org.eclipse.jface.action.IToolBarManager;
+import org.eclipse.jface.action.Separator;
+import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.resource.FontDescriptor;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.MouseEvent;
@@ -36,851 +30,568 @@ import org.eclipse.swt.events.MouseListener;
 import org.eclipse.swt.events.MouseMoveListener;
 import org.eclipse.swt.events.PaintEvent;
 import org.eclipse.swt.graphics.Color;
-import org.eclipse.swt.graphics.Cursor;
 import org.eclipse.swt.graphics.Font;
 import org.eclipse.swt.graphics.GC;
-import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.graphics.Transform;
+import org.eclipse.ui.ISharedImages;
+import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.part.ViewPart;
 
-enum MouseEventType { DOWN, MOVED, UP, DOUBLE_CLICKED }; 
+/**
+ * Shows a {@link MachineModel} and lets the user interact with it. The scene, i.e. the model scaled by
+ * the {@link #zoom}, scrolls; it is painted into the tiles of a {@link TileCache}, which are only
+ * painted again once the model damages them.
+ */
+class MachineStateCanvas extends Canvas implements MachineView {
 
-class Element {
-	Element parent;
-	final Element firstChild; // Points to a dummy element
-	Element previousSibling;
-	Element nextSibling;
-	int x, y, width, height;
-	Element mouseChild;
-	boolean mouseInside;
+	static final double ZOOM_STEP = 1.25;
+	static final int MIN_ZOOM_LEVEL = -8;
+	static final int MAX_ZOOM_LEVEL = 4;
+	/** Pixels scrolled per line, e.g. per notch of the mouse wheel. */
+	static final int SCROLL_INCREMENT = 20;
+
+	Font boldFont;
+	Color objectColor;
+	Color changedColor;
+	final TextExtentCache textExtents = new TextExtentCache(this, Settings.textExtentCacheSize);
+	final SnapshotJob snapshotJob = new SnapshotJob(this);
+	final MachineModel model = new MachineModel(textExtents, this, snapshotJob.context);
+	final SnapshotHistory history = new SnapshotHistory(Settings.historySize);
+	/** Called whenever the history, or the snapshot shown from it, changes. */
+	Runnable historyListener = () -> {};
+	ElementPainter painter;
+	final PaintContext paintContext;
+	/** Cached, since {@link #getBackground()} allocates a new color every time. */
+	Color background;
+	/** Reused for every mouse event. */
+	final MouseInput mouseInput = new MouseInput();
+	/** Where the mouse button was last pressed, in the coordinates of the canvas. */
+	int downX, downY;
+	final TileCache tiles;
+	/** Reused for every tile. */
+	final Transform tileTransform;
+	/** The zoom is {@link #ZOOM_STEP} to this power. */
+	int zoomLevel;
+	double zoom = 1;
+	/** The point of the scene at the top left corner of the canvas. */
+	int originX, originY;
+	/** {@code null} unless shown. */
+	MetricsOverlay overlay;
 	
-	final Iterable<Element> children = new Iterable<Element>() {
+	MachineStateCanvas(Composite parent) {
+		super(parent, SWT.DOUBLE_BUFFERED | SWT.NO_BACKGROUND | SWT.H_SCROLL | SWT.V_SCROLL);
+		tiles = new TileCache(getDisplay());
+		tileTransform = new Transform(getDisplay());
+		addPaintListener(this::paint);
+		addMouseMoveListener(new MouseMoveListener() {
 
-		@Override
-		public Iterator<Element> iterator() {
-			return new Iterator<Element>() {
-				Element child = firstChild.nextSibling;
+			@Override
+			public void mouseMove(MouseEvent e) {
+				dispatch(MouseEventType.MOVED, e.x, e.y, e.count);
+			}
+			
+		});
+		addListener(SWT.MouseVerticalWheel, event -> {
+			// Scroll ourselves, unless an array scrolls instead
+			event.doit = false;
+			if ((event.stateMask & SWT.MOD1) != 0)
+				zoomTo(zoomLevel + Integer.signum(event.count), event.x, event.y);
+			else if (!dispatch(MouseEventType.WHEEL, event.x, event.y, event.count))
+				scrollTo(originX, originY - event.count * SCROLL_INCREMENT);
+		});
+		addMouseListener(new MouseListener() {
 
-				@Override
-				public boolean hasNext() {
-					return child != firstChild;
-				}
+			@Override
+			public void mouseDoubleClick(MouseEvent e) {
+				dispatch(MouseEventType.DOUBLE_CLICKED, e.x, e.y, e.count);
+			}
 
-				@Override
-				public Element next() {
-					Element child = this.child;
-					this.child = child.nextSibling;
-					return child;
-				}
-				
-			};
-		}
-		
-	};
-	
-	private Element() {
-		firstChild = null;
-		nextSibling = this;
-		previousSibling = this;
+			@Override
+			public void mouseDown(MouseEvent e) {
+				downX = e.x;
+				downY = e.y;
+				dispatch(MouseEventType.DOWN, e.x, e.y, e.count);
+			}
+
+			@Override
+			public void mouseUp(MouseEvent e) {
+				dispatch(MouseEventType.UP, e.x, e.y, e.count);
+			}
+			
+		});
+		getHorizontalBar().addListener(SWT.Selection, event -> scrollTo(getHorizontalBar().getSelection(), originY));
+		getVerticalBar().addListener(SWT.Selection, event -> scrollTo(originX, getVerticalBar().getSelection()));
+		addListener(SWT.Resize, event -> updateScrollBars());
+		FontDescriptor boldDescriptor = FontDescriptor.createFrom(getFont()).setStyle(SWT.BOLD);
+		boldFont = boldDescriptor.createFont(getDisplay());
+		objectColor = new Color(getDisplay(), 255, 204, 203);
+		changedColor = new Color(getDisplay(), 255, 255, 150);
+		painter = new ElementPainter(model, objectColor, changedColor);
+		paintContext = new PaintContext(getDisplay());
+		background = getBackground();
+		addListener(SWT.Settings, event -> {
+			// The system font may have changed
+			textExtents.clear();
+		});
+		Tracing.init();
+		addDisposeListener(event -> {
+			setOverlayShown(false);
+			snapshotJob.dispose();
+			textExtents.clear();
+			boldFont.dispose();
+			objectColor.dispose();
+			changedColor.dispose();
+			paintContext.dispose();
+			tiles.dispose();
+			tileTransform.dispose();
+		});
+		refresh(true);
 	}
 	
-	Element(Element parent) {
-		if (parent != null)
-			parent.add(this);
-		firstChild = new Element();
+	/** Takes the coordinates of the canvas; returns whether an element handled the event. */
+	boolean dispatch(MouseEventType type, int x, int y, int count) {
+		if (model.machine == null)
+			return false;
+		MouseInput input = mouseInput;
+		input.x = (int)Math.floor((x + originX) / zoom);
+		input.y = (int)Math.floor((y + originY) / zoom);
+		input.count = count;
+		input.cursor = null;
+		boolean handled = model.root.handleMouseEvent(type, input);
+		if (input.cursor != null)
+			setCursor(getDisplay().getSystemCursor(input.cursor == MouseCursor.RESIZE_COLUMN ? SWT.CURSOR_SIZEE : SWT.CURSOR_ARROW));
+		return handled;
 	}
-	
-	void mapPoint(Point point, Element ancestor) {
-		Element e = this;
-		while (e != ancestor) {
-			point.x += e.x;
-			point.y += e.y;
-			e = e.parent;
-		}
+
+	/** Adapts the scroll bars to the extent of the scene and the size of the canvas. */
+	void updateScrollBars() {
+		Rectangle area = getClientArea();
+		Element machine = model.machine;
+		int width = machine == null ? 0 : (int)Math.ceil((machine.x + machine.width) * zoom);
+		int height = machine == null ? 0 : (int)Math.ceil((machine.y + machine.height) * zoom);
+		getHorizontalBar().setValues(originX, 0, Math.max(1, width), Math.max(1, Math.min(area.width, width)), SCROLL_INCREMENT, Math.max(1, area.width));
+		getVerticalBar().setValues(originY, 0, Math.max(1, height), Math.max(1, Math.min(area.height, height)), SCROLL_INCREMENT, Math.max(1, area.height));
+		scrollTo(originX, originY);
 	}
-	
-	void remove(Element child) {
-		if (child.parent != this) throw new AssertionError();
-		if (mouseChild == child)
-			setMouseChild(null);
-		child.parent = null;
-		
-		child.nextSibling.previousSibling = child.previousSibling;
-		child.previousSibling.nextSibling = child.nextSibling;
-		child.nextSibling = child.previousSibling = null;
+
+	/** Scrolls the given point of the scene, as far as possible, to the top left corner. */
+	void scrollTo(int x, int y) {
+		ScrollBar horizontal = getHorizontalBar();
+		ScrollBar vertical = getVerticalBar();
+		x = Math.max(0, Math.min(x, horizontal.getMaximum() - horizontal.getThumb()));
+		y = Math.max(0, Math.min(y, vertical.getMaximum() - vertical.getThumb()));
+		if (x == originX && y == originY)
+			return;
+		originX = x;
+		originY = y;
+		horizontal.setSelection(x);
+		vertical.setSelection(y);
+		// Blits the cached tiles
+		super.redraw();
 	}
-	
-	void add(Element child) {
-		if (child.parent != null)
-			child.parent.remove(child);
-		child.parent = this;
-		
-		child.nextSibling = firstChild.nextSibling;
-		child.previousSibling = firstChild;
-		child.nextSibling.previousSibling = child;
-		child.previousSibling.nextSibling = child;
+
+	/** Keeps the point of the model under the given point of the canvas in place. */
+	void zoomTo(int level, int anchorX, int anchorY) {
+		level = Math.max(MIN_ZOOM_LEVEL, Math.min(level, MAX_ZOOM_LEVEL));
+		if (level == zoomLevel)
+			return;
+		double modelX = (anchorX + originX) / zoom;
+		double modelY = (anchorY + originY) / zoom;
+		zoomLevel = level;
+		zoom = Math.pow(ZOOM_STEP, level);
+		updateScrollBars();
+		scrollTo((int)Math.round(modelX * zoom) - anchorX, (int)Math.round(modelY * zoom) - anchorY);
+		super.redraw();
 	}
-	
-	void paint(GC gc) {
-		Transform transform = new Transform(gc.getDevice());
-		gc.getTransform(transform);
-		// Paint in reverse order, so that the first child is on top
-		for (Element child = firstChild.previousSibling; child != firstChild; child = child.previousSibling) {
-			transform.translate(child.x, child.y);
-			gc.setTransform(transform);
-			child.paint(gc);
-			transform.translate(-child.x, -child.y);
-			gc.setTransform(transform);
-		}
-		transform.dispose();
+
+	/** Zooms about the center of the canvas. */
+	void zoomTo(int level) {
+		Rectangle area = getClientArea();
+		zoomTo(level, area.width / 2, area.height / 2);
 	}
-	
-	int getCursor(int x, int y) {
-		return SWT.CURSOR_ARROW;
+
+	@Override
+	public void setFont(Font font) {
+		super.setFont(font);
+		textExtents.clear();
+		// Lay out the current snapshot again with the new font
+		model.clear();
+		setSnapshot(model.snapshot);
 	}
 	
-	void mouseEntered() {}
+	@Override
+	public void setBackground(Color color) {
+		super.setBackground(color);
+		background = getBackground();
+		if (tiles != null)
+			tiles.clear();
+	}
 	
-	private void mouseExitedInternal() {
-		if (mouseChild != null)
-			setMouseChild(null);
-		mouseInside = false;
-		mouseExited();
+	/** Paints all tiles again. */
+	@Override
+	public void redraw() {
+		if (tiles != null)
+			tiles.clear();
+		super.redraw();
 	}
 	
-	void mouseExited() {}
+	/** Takes the coordinates of the model; paints the tiles that show the given rectangle again. */
+	@Override
+	public void redraw(int x, int y, int width, int height) {
+		tiles.invalidate(x, y, width, height);
+		int left = (int)Math.floor(x * zoom) - originX;
+		int top = (int)Math.floor(y * zoom) - originY;
+		int right = (int)Math.ceil((x + width) * zoom) - originX;
+		int bottom = (int)Math.ceil((y + height) * zoom) - originY;
+		redraw(left, top, right - left + 1, bottom - top + 1, false);
+	}
 	
-	void setMouseChild(Element child) {
-		if (child != mouseChild) {
-			if (mouseChild != null)
-				mouseChild.mouseExitedInternal();
-			if (child != null) {
-				child.mouseInside = true;
-				// Move to front of z-order
-				if (child.previousSibling != firstChild) {
-					child.nextSibling.previousSibling = child.previousSibling;
-					child.previousSibling.nextSibling = child.nextSibling;
-					child.nextSibling = firstChild.nextSibling;
-					child.previousSibling = firstChild;
-					child.previousSibling.nextSibling = child;
-					child.nextSibling.previousSibling = child;
+	@Override
+	public void beginDrag(MachineModel.JavaObject object) {
+		int origX = object.x;
+		int origY = object.y;
+		int downX = this.downX;
+		int downY = this.downY;
+		class DragListener implements Listener {
+			
+			boolean isDragging;
+
+			@Override
+			public void handleEvent(Event event) {
+				switch (event.type) {
+				case SWT.MouseMove:
+					isDragging = true;
+					model.damageWithArrows(object);
+					object.moveTo(origX + (int)Math.round((event.x - downX) / zoom), origY + (int)Math.round((event.y - downY) / zoom));
+					model.damageWithArrows(object);
+					updateScrollBars();
+					event.type = SWT.None;
+					break;
+				case SWT.MouseUp:
+					getDisplay().removeFilter(SWT.MouseUp, this);
+					getDisplay().removeFilter(SWT.MouseMove, this);
+					if (isDragging)
+						event.type = SWT.None;
 				}
-				child.mouseEntered();
 			}
-			mouseChild = child;
+			
 		}
+		DragListener listener = new DragListener(); 
+		getDisplay().addFilter(SWT.MouseUp, listener);
+		getDisplay().addFilter(SWT.MouseMove, listener);
 	}
 	
-	boolean handleMouseEvent(MouseEventType type, MouseEvent e) {
-		//System.out.println("Entering handleMouseEvent(" + type + ", (" + e.x + ", " + e.y + "))");
-		for (Element child : children) {
-			if (child.x <= e.x && e.x < child.x + child.width && child.y <= e.y && e.y < child.y + child.height) {
-				e.x -= child.x;
-				e.y -= child.y;
-				//System.out.println("Entering child at (" + child.x + ", " + child.y + "), extent (" + child.width + ", " + child.height + ")");
-				setMouseChild(child);
-				boolean result = child.handleMouseEvent(type, e);
-				//System.out.println("Leaving child");
-				e.x += child.x;
-				e.y += child.y;
-				return result;
-			} //else
-				//System.out.println("Skipping child at (" + child.x + ", " + child.y + "), extent (" + child.width + ", " + child.height + ")");
-		}
-		setMouseChild(null);
-		if (type == MouseEventType.MOVED) {
-			((Canvas)e.widget).setCursor(((Canvas)e.widget).getDisplay().getSystemCursor(getCursor(e.x, e.y)));
-			return true;
-		}
-		return false;
+	/** Does nothing while the user looks at an earlier snapshot, whose objects can no longer be read. */
+	@Override
+	public void expand(long id) {
+		if (history.isAtLatest())
+			snapshotJob.expand(id);
 	}
-}
-
-class Arrow {
-	int fromX, fromY;
-	Element toElement;
 	
-	Arrow(int fromX, int fromY, Element toElement) {
-		this.fromX = fromX;
-		this.fromY = fromY;
-		this.toElement = toElement;
+	/** Like {@link #expand}, does nothing while the user looks at an earlier snapshot. */
+	@Override
+	public void reread(long id) {
+		if (history.isAtLatest())
+			snapshotJob.reread(id);
 	}
 	
-	static int ARROWHEAD_LENGTH = 20;
-	static int ARROWHEAD_WIDTH = 10;
-	
-	static void paintArrow(GC gc, int fromX, int fromY, Element toElement) {
-		int toX, toY;
-		
-		Point toElementOrigin = new Point(0, 0);
-		toElement.mapPoint(toElementOrigin, null);
-		
-		if (fromX < toElementOrigin.x)
-			toX = toElementOrigin.x;
-		else if (fromX < toElementOrigin.x + toElement.width)
-			toX = fromX;
-		else
-			toX = toElementOrigin.x + toElement.width;
-		
-		if (fromY < toElementOrigin.y)
-			toY = toElementOrigin.y;
-		else if (fromY < toElementOrigin.y + toElement.height)
-			toY = fromY;
-		else
-			toY = toElementOrigin.y + toElement.height;
-		
-		if ((toX - fromX) * (toX - fromX) + (toY - fromY) * (toY - fromY) < 400) {
-			// Avoid too short an arrow; point to the furthest corner
-			if (fromX < toElementOrigin.x + toElement.width / 2)
-				toX = toElementOrigin.x + toElement.width;
-			else
-				toX = toElement.x;
-			if (fromY < toElementOrigin.y + toElement.height / 2)
-				toY = toElementOrigin.y + toElement.height;
-			else
-				toY = toElementOrigin.y;
-		}
-		
-		int length = (int)Math.sqrt((toX - fromX) * (toX - fromX) + (toY - fromY) * (toY - fromY));
-		
-		gc.drawLine(fromX, fromY, toX, toY);
-		
-		int arrowBaseX = toX + (fromX - toX) * ARROWHEAD_LENGTH / length;
-		int arrowBaseY = toY + (fromY - toY) * ARROWHEAD_LENGTH / length;
-		int vecX = (toY - fromY) * ARROWHEAD_WIDTH  / 2 / length;
-		int vecY = (fromX - toX) * ARROWHEAD_WIDTH / 2 / length;
-		
-		Color oldBackground = gc.getBackground();
-		gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_BLACK));
-		gc.fillPolygon(new int[] {toX, toY, arrowBaseX + vecX, arrowBaseY + vecY, arrowBaseX - vecX, arrowBaseY - vecY});
-		gc.setBackground(oldBackground);
+	/** {@code suspended} tells whether the target suspended, so that the snapshot starts a new step. */
+	void refresh(boolean suspended) {
+		snapshotJob.requestRefresh(suspended);
 	}
 	
-	void paint(GC gc) {
-		paintArrow(gc, fromX, fromY, toElement);
+	/** Shows the machine state saved in the given file instead of the debug target's, or the debug target's again if {@code null}. */
+	void replay(SnapshotFile file) {
+		history.clear();
+		snapshotJob.replay(file);
+		historyListener.run();
 	}
-}
-
-abstract class VariablesTable {
-	int namesWidth = 150;
-	int valuesWidth = 150;
 	
-	abstract void updateNamesWidth();
-	abstract void updateValuesWidth();
-}
-
-class MachineStateCanvas extends Canvas {
-
-	static String chopPackageName(String fullyQualifiedName) {
-		int i = fullyQualifiedName.lastIndexOf('.');
-		if (i >= 0)
-			return fullyQualifiedName.substring(i + 1);
+	/**
+	 * Called on the UI thread with each snapshot finished by the {@link SnapshotJob}; shows it, even if
+	 * the user was looking at an earlier one. A {@code null} snapshot means there is no debug target.
+	 */
+	void addSnapshot(Snapshot snapshot) {
+		if (snapshot == null)
+			history.clear();
 		else
-			return fullyQualifiedName;
+			history.add(snapshot);
+		setSnapshot(snapshot);
+		historyListener.run();
 	}
-	
-	static int OUTER_MARGIN = 4;
-	
-	Font boldFont;
-	Color objectColor;
-	Element machine;
-	Heap heap;
-	VariablesTable stackVariablesTable = new VariablesTable() {
 
-		@Override
-		void updateNamesWidth() {
-			stack.updateNamesWidth();
-			
+	void back() {
+		if (history.canGoBack()) {
+			setSnapshot(history.back());
+			historyListener.run();
 		}
+	}
 
-		@Override
-		void updateValuesWidth() {
-			stack.updateValuesWidth();
+	void forward() {
+		if (history.canGoForward()) {
+			setSnapshot(history.forward());
+			historyListener.run();
 		}
-		
-	};
-	
-	CallStack stack;
-	List<Runnable> delayedInitializers;
-	List<Arrow> arrows; // Only meaningful during a paint()
-	
-	class Variable extends Element {
-	
-		final static int PADDING = 1;
-		final static int INNER_PADDING = 3;
-		
-		VariablesTable table;
-		String name;
-		Point nameExtent;
-		String valueString;
-		Object value;
-		Point valueExtent;
-	
-		void setValue(GC gc, IValue value) throws DebugException {
-			if (!(value instanceof IJavaValue))
-				return;
-			IJavaValue javaValue = (IJavaValue)value;
-			IJavaType javaType = javaValue.getJavaType();
-			if (!(javaType instanceof IJavaReferenceType))
-				return;
-			if (javaValue.isNull())
-				return;
-			if (javaType.getName().equals("java.lang.String")) {
-				this.value = this.valueString = '"' + (String)this.value + '"' + " (id=" + ((IJavaObject)javaValue).getUniqueId() + ")";
-				return;
-			}
-			this.valueString = chopPackageName(javaType.getName()) + " (id=" + ((IJavaObject)value).getUniqueId() + ")";
-			delayedInitializers.add(() -> {
-				try {
-					this.value = heap.get(gc, (IJavaObject)value);
-				} catch (DebugException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-			});
-		}
-		
-		Variable(Element parent, GC gc, Heap heap, int x, int y, VariablesTable table, IVariable variable) throws DebugException {
-			super(parent);
-			this.x = x;
-			this.y = y;
-			this.table = table;
-			this.width = table.namesWidth + table.valuesWidth;
-			this.name = variable.getName();
-			this.nameExtent = gc.stringExtent(this.name);
-			IValue value = variable.getValue();
-			this.valueString = value.getValueString();
-			this.value = valueString;
-			this.valueExtent = gc.stringExtent(valueString);
-			setValue(gc, value);
-			this.height = PADDING + Math.max(this.nameExtent.y, this.valueExtent.y) + PADDING;
-		}
-		
-		@Override
-		void paint(GC gc) {
-			gc.drawString(this.name, this.table.namesWidth - this.nameExtent.x - INNER_PADDING, PADDING);
-			Color oldBackground = gc.getBackground();
-			gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_WHITE));
-			gc.fillRectangle(this.table.namesWidth + 2, 0, this.table.valuesWidth - 2, this.height);
-			if (this.value instanceof String || ((JavaObject)this.value).parent == null) {
-				gc.drawString(valueString, this.table.namesWidth + INNER_PADDING, PADDING);
-			} else {
-				Point from = new Point(this.table.namesWidth + this.table.valuesWidth / 2, this.height / 2);
-				mapPoint(from, null);
-				arrows.add(new Arrow(from.x, from.y, (JavaObject)this.value));
-			}
-			gc.setBackground(oldBackground);
-		}
-		
-		int getDesiredNamesWidth() {
-			return nameExtent.x + INNER_PADDING;
-		}
-		
-		int getDesiredValuesWidth() {
-			return INNER_PADDING + valueExtent.x + INNER_PADDING;
-		}
-		
-		int getCursor(int x, int y) {
-			if (Math.abs(x - table.namesWidth) < 5)
-				return SWT.CURSOR_SIZEE;
-			else if (Math.abs(x - table.namesWidth - table.valuesWidth) < 10)
-				return SWT.CURSOR_SIZEE;
-			else
-				return SWT.CURSOR_ARROW;
-		}
-		
-		@Override boolean handleMouseEvent(MouseEventType type, MouseEvent e) {
-			switch (type) {
-			case DOUBLE_CLICKED: {
-				// TODO: Create child elements for the column edges?
-				if (Math.abs(e.x - table.namesWidth) < 5)
-					table.updateNamesWidth();
-				else if (Math.abs(e.x - table.namesWidth - table.valuesWidth) < 10)
-					table.updateValuesWidth();
-				else if (table.namesWidth <= e.x)
-					if (value instanceof JavaObject)
-						if (((JavaObject)value).parent == null) {
-							heap.add((JavaObject)value);
-							redraw();
-						}
-				return true;
-			}
-			default: break;
-			}
-			return super.handleMouseEvent(type, e);
+	}
+
+	void setOverlayShown(boolean shown) {
+		if (shown == (overlay != null))
+			return;
+		if (shown) {
+			overlay = new MetricsOverlay(this);
+			Metrics.addListener(overlay);
+		} else {
+			Metrics.removeListener(overlay);
+			overlay = null;
 		}
+		redrawOverlay();
+	}
 
+	/** Only blits the tiles again, under the overlay. */
+	void redrawOverlay() {
+		super.redraw();
 	}
-	
-	class ReturnFrame extends Element {
-		final static int BORDER = StackFrame.BORDER;
-		final static int PADDING = StackFrame.PADDING;
-		
-		Variable returnValue;
-		
-		ReturnFrame(GC gc, int y, int localsX, IVariable returnValue) throws DebugException {
-			super(stack);
-			this.x = MachineStateCanvas.OUTER_MARGIN;
-			this.y = y;
-			this.width = BORDER + PADDING + stack.table.namesWidth + stack.table.valuesWidth + PADDING + BORDER;
-			this.returnValue = new Variable(this, gc, heap, localsX, BORDER + PADDING, stack.table, returnValue);
-		}
-		
-		void paint(GC gc) {
-			gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_GRAY));
-			gc.fillRectangle(0, 0, this.width, this.returnValue.height + 2 * PADDING + 2 * BORDER);
-			gc.drawRectangle(0, 0, this.width, this.returnValue.height + 2 * PADDING + 2 * BORDER);
-			super.paint(gc);
+
+	/** The model schedules the repaints of what changed. */
+	void setSnapshot(Snapshot snapshot) {
+		Metrics.Timer timer = Metrics.start(Metrics.Phase.LAYOUT);
+		try {
+			model.setSnapshot(snapshot);
+		} finally {
+			textExtents.releaseGC();
+			Metrics.stop(timer);
 		}
-		
+		updateScrollBars();
 	}
 	
-	int getStackFrameWidth() {
-		return StackFrame.BORDER + StackFrame.PADDING + stack.table.namesWidth + stack.table.valuesWidth + StackFrame.PADDING + StackFrame.BORDER;
+	void paint(PaintEvent event) {
+		Metrics.Timer timer = Metrics.start(Metrics.Phase.PAINT);
+		try {
+			paintTiles(event);
+		} finally {
+			Metrics.stop(timer);
+		}
+		if (overlay != null)
+			overlay.paint(event.gc);
 	}
-	
-	class StackFrame extends Element {
-		
-		final static int BORDER = 2;
-		final static int PADDING = 3;
-		
-		String method;
-		Point methodExtent;
-		boolean active;
-		
-		StackFrame(GC gc, Heap heap, int y, IStackFrame frame, boolean active) throws DebugException {
-			super(stack);
-			this.active = active;
-			this.x = MachineStateCanvas.OUTER_MARGIN;
-			this.y = y;
-			this.width = getStackFrameWidth();
-			y = 0;
-			if (frame instanceof IJavaStackFrame) {
-				IJavaStackFrame javaFrame = (IJavaStackFrame)frame;
-				String className = chopPackageName(javaFrame.getDeclaringTypeName());
-				String signature = String.join(", ", javaFrame.getArgumentTypeNames().stream().map(MachineStateCanvas::chopPackageName).collect(Collectors.toList()));
-				this.method = className + "::" + javaFrame.getMethodName() + "(" + signature + ")";
-			} else
-				this.method = frame.getName();
-			int lineNumber = frame.getLineNumber();
-			if (1 <= lineNumber)
-				this.method += " on line " + lineNumber;
-			this.methodExtent = gc.stringExtent(this.method);
-			y += BORDER;
-			y += PADDING;
-			y += this.methodExtent.y;
-			y += PADDING;
-			IVariable[] variables = frame.getVariables();
-			IVariable returnValue = null;
-			if (active && variables.length > 0) {
-				// The first local in the active stack frame seems to be the return value from the most recent call
-				returnValue = variables[0];
-				int length = variables.length;
-				System.arraycopy(variables, 1, variables = new IVariable[length - 1], 0, length - 1);
-			}
-			int localsX = BORDER + PADDING;
-			for (int i = 0; i < variables.length; i++) {
-				IVariable variable = variables[i];
-				if (!(variable.getName().equals("Lambda") || variable instanceof IJavaVariable && ((IJavaVariable)variable).isStatic())) {
-					Variable local = new Variable(this, gc, heap, localsX, y, stack.table, variable);
-					y += local.height + PADDING;
+
+	/** Blits the tiles that cover the damaged area, rendering those that are not cached. */
+	void paintTiles(PaintEvent event) {
+		GC gc = event.gc;
+		if (model.snapshot == null) {
+			gc.setBackground(background);
+			gc.fillRectangle(event.x, event.y, event.width, event.height);
+			gc.drawString("No program running.", 1, 1);
+			return;
+		}
+		int size = TileCache.SIZE;
+		int firstColumn = Math.floorDiv(originX + event.x, size);
+		int lastColumn = Math.floorDiv(originX + event.x + event.width - 1, size);
+		int firstRow = Math.floorDiv(originY + event.y, size);
+		int lastRow = Math.floorDiv(originY + event.y + event.height - 1, size);
+		boolean arrowsCollected = false;
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				TileCache.Tile tile = tiles.get(zoomLevel, column, row);
+				if (tile == null) {
+					if (!arrowsCollected) {
+						model.collectArrows();
+						arrowsCollected = true;
+					}
+					tile = renderTile(column, row);
 				}
+				gc.drawImage(tile.image, column * size - originX, row * size - originY);
 			}
-			y += BORDER;
-			this.height = y;
-			if (returnValue != null && !returnValue.getName().equals("no method return value") && !returnValue.getReferenceTypeName().equals("void")) {
-				new ReturnFrame(gc, this.y + y, localsX, returnValue);
-			}
-		}
-		
-		@Override
-		void paint(GC gc) {
-			gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_GREEN));  //active ? SWT.COLOR_YELLOW : SWT.COLOR_GREEN));
-			gc.fillRectangle(0, 0, this.width, this.height);
-			int oldWidth = gc.getLineWidth();
-			if (active)
-				gc.setLineWidth(2);
-			gc.drawRectangle(0, 0, this.width, this.height);
-			gc.setLineWidth(oldWidth);
-			//Font oldFont = gc.getFont();
-			//gc.setFont(methodFont);
-			gc.drawString(this.method, (this.width - this.methodExtent.x) / 2 , BORDER + PADDING);
-			//gc.setFont(oldFont);
-			super.paint(gc);
-		}
-		
-		int getDesiredNamesWidth() {
-			int width = Math.max(20, methodExtent.x - stack.table.valuesWidth);
-			for (Element e : children)
-				width = Math.max(width, ((Variable)e).getDesiredNamesWidth());
-			return width;
-		}
-		
-		int getDesiredValuesWidth() {
-			int width = Math.max(20, methodExtent.x - stack.table.namesWidth);
-			for (Element e : children)
-				width = Math.max(width, ((Variable)e).getDesiredValuesWidth());
-			return width;
 		}
 	}
-	
-	class CallStack extends Element {
 
-		VariablesTable table = stackVariablesTable;
-
-		CallStack(GC gc, Heap heap, IStackFrame[] frames) throws DebugException {
-			super(machine);
-			stack = this;
-			int y = MachineStateCanvas.OUTER_MARGIN;
-			for (int i = 0; i < frames.length; i++) {
-				IStackFrame frame = frames[frames.length - i - 1];
-				boolean active = i == frames.length - 1;
-				if (active || !(frame instanceof IJavaStackFrame && ((IJavaStackFrame)frame).getDeclaringTypeName().contains("$$Lambda$"))) {
-					StackFrame stackFrame = new StackFrame(gc, heap, y, frame, active);
-					y += stackFrame.height;
-				}
+	TileCache.Tile renderTile(int column, int row) {
+		int size = TileCache.SIZE;
+		Metrics.count(Metrics.Counter.TILES_RENDERED);
+		TileCache.Tile tile = new TileCache.Tile(zoomLevel, column, row, zoom, tiles.newImage());
+		GC gc = new GC(tile.image);
+		try {
+			gc.setFont(getFont());
+			gc.setBackground(background);
+			gc.fillRectangle(0, 0, size, size);
+			tileTransform.setElements((float)zoom, 0, 0, (float)zoom, -column * size, -row * size);
+			gc.setTransform(tileTransform);
+			// The part of the model that the tile shows
+			int clipX = (int)Math.floor(column * size / zoom);
+			int clipY = (int)Math.floor(row * size / zoom);
+			int clipSize = (int)Math.ceil(size / zoom) + 1;
+			Snapshot snapshot = model.snapshot;
+			int[] messageYs = model.messageYs;
+			for (int i = 0; i < snapshot.messages.size() && i + 1 < messageYs.length; i++)
+				if (messageYs[i] <= clipY + clipSize && clipY <= messageYs[i + 1])
+					gc.drawString(snapshot.messages.get(i), 1, messageYs[i] + 1);
+			if (model.machine != null) {
+				PaintContext pc = paintContext;
+				pc.begin(gc, background, clipX, clipY, clipSize, clipSize);
+				pc.detail = ElementPainter.detailAt(zoom);
+				painter.paint(pc);
+				pc.end();
 			}
-			width = OUTER_MARGIN + getStackFrameWidth() + OUTER_MARGIN;
-			height = 10000;
+		} finally {
+			gc.dispose();
 		}
+		tiles.put(tile);
+		return tile;
+	}
+}
 
-		public void updateNamesWidth() {
-			int maxNamesWidth = 20;
-			for (Element frame : children)
-				maxNamesWidth = Math.max(maxNamesWidth, ((StackFrame)frame).getDesiredNamesWidth());
-			table.namesWidth = maxNamesWidth;
-			redraw();
-		}
-		
-		public void updateValuesWidth() {
-			int maxValuesWidth = 20;
-			for (Element frame : children)
-				maxValuesWidth = Math.max(maxValuesWidth, ((StackFrame)frame).getDesiredValuesWidth());
-			table.valuesWidth = maxValuesWidth;
-			redraw();
-		}
+public class MachineStateView extends ViewPart {
+
+	public MachineStateView() {
 	}
 	
-	class JavaObject extends Element {
-		
-		static final int BORDER = 2;
-		static final int PADDING = 3;
-		
-		long id;
-		String className;
-		String title;
-		Point titleExtent;
-		VariablesTable table = new VariablesTable() {
+	/**
+	 * Only events after which the machine state may look different warrant a new snapshot.
+	 * In particular, resumes, output, and implicit evaluations (e.g. by detail formatters) do not.
+	 */
+	static boolean isRelevant(DebugEvent event) {
+		switch (event.getKind()) {
+		case DebugEvent.SUSPEND:
+			return event.getDetail() != DebugEvent.EVALUATION_IMPLICIT;
+		case DebugEvent.TERMINATE:
+			return event.getSource() instanceof IDebugTarget || event.getSource() instanceof IThread;
+		case DebugEvent.CHANGE:
+			Object source = event.getSource();
+			return event.getDetail() == DebugEvent.CONTENT && (source instanceof IDebugTarget || source instanceof IThread || source instanceof IStackFrame || source instanceof IVariable);
+		default:
+			return false;
+		}
+	}
 
-			@Override
-			void updateNamesWidth() {
-				int namesWidth = Math.max(20, titleExtent.x - valuesWidth);
-				for (Variable v : variables)
-					namesWidth = Math.max(namesWidth, v.getDesiredNamesWidth());
-				this.namesWidth = namesWidth;
-				redraw();
+	public void createPartControl(Composite parent) {
+		MachineStateCanvas canvas = new MachineStateCanvas(parent);
+		IDebugEventSetListener debugListener = events -> {
+			if (canvas.snapshotJob.isReplaying())
+				return;
+			boolean relevant = false;
+			boolean suspended = false;
+			for (DebugEvent event : events) {
+				if (isRelevant(event)) {
+					relevant = true;
+					suspended |= event.getKind() == DebugEvent.SUSPEND;
+				}
 			}
+			if (relevant)
+				canvas.refresh(suspended);
+		};
+		DebugPlugin.getDefault().addDebugEventListener(debugListener);
+		canvas.addDisposeListener(event -> {
+			DebugPlugin.getDefault().removeDebugEventListener(debugListener);
+		});
+		createActions(canvas);
+	}
 
+	void createActions(MachineStateCanvas canvas) {
+		ISharedImages images = PlatformUI.getWorkbench().getSharedImages();
+		Action back = new Action("Back") {
 			@Override
-			void updateValuesWidth() {
-				int valuesWidth = Math.max(20, titleExtent.x - namesWidth);
-				for (Variable v : variables)
-					valuesWidth = Math.max(valuesWidth, v.getDesiredValuesWidth());
-				this.valuesWidth = valuesWidth;
-				redraw();
+			public void run() {
+				canvas.back();
 			}
-			
 		};
-		Variable[] variables;
-		
-		Element closeButton;
-		
-		int getWidth() {
-			return BORDER + PADDING + table.namesWidth + table.valuesWidth + PADDING + BORDER;
-		}
-		
-		JavaObject(int x, int y, long id) {
-			super(heap);
-			this.x = x;
-	        this.y = y;
-	        this.id = id;
-	        this.width = getWidth();
-	        this.height = 50;
-	        
-	        closeButton = new Element(this) {
-	        	
-	        	@Override
-	        	void paint(GC gc) {
-	        		if (JavaObject.this.mouseInside) {
-		        		gc.drawLine(0, 0, this.width, this.height);
-		        		gc.drawLine(0, this.height, this.width, 0);
-	        		}
-	        	}
-	        	
-	        	@Override
-	        	boolean handleMouseEvent(MouseEventType type, MouseEvent e) {
-	        		if (type == MouseEventType.UP) {
-	        			JavaObject.this.parent.remove(JavaObject.this);
-	        			redraw();
-	        			return true;
-	        		}
-	        		return super.handleMouseEvent(type, e);
-	        	}
-	        };
-	        closeButton.width = 10;
-	        closeButton.height = 10;
-	        closeButton.y = BORDER + PADDING;
-		}
-    	
-    	@Override
-    	void mouseEntered() { redraw(); }
-    	
-    	@Override
-    	void mouseExited() { redraw(); }
-    	
-    	@Override
-    	boolean handleMouseEvent(MouseEventType type, MouseEvent e) {
-    		if (type == MouseEventType.DOWN) {
-    			int origX = this.x;
-    			int origY = this.y;
-        		class DragListener implements Listener {
-        			
-        			boolean isDragging;
-
-    				@Override
-    				public void handleEvent(Event event) {
-    					switch (event.type) {
-    					case SWT.MouseMove:
-    						isDragging = true;
-    						JavaObject.this.x = origX + event.x - e.x;
-    						JavaObject.this.y = origY + event.y - e.y;
-    						redraw();
-    						event.type = SWT.None;
-    						break;
-    					case SWT.MouseUp:
-							getDisplay().removeFilter(SWT.MouseUp, this);
-							getDisplay().removeFilter(SWT.MouseMove, this);
-    						if (isDragging)
-    							event.type = SWT.None;
-    					}
-    				}
-        			
-        		}
-    			DragListener listener = new DragListener(); 
-    			getDisplay().addFilter(SWT.MouseUp, listener);
-    			getDisplay().addFilter(SWT.MouseMove, listener);
-    		}
-    		return super.handleMouseEvent(type, e);
-    	}
-		
-		void setState(GC gc, IJavaObject javaObject) throws DebugException {
-			className = MachineStateCanvas.chopPackageName(javaObject.getReferenceTypeName());
-			title = this.className + " (id=" + id + ")";
-			if (javaObject instanceof IJavaArray)
-				title += " (length=" + ((IJavaArray)javaObject).getLength() + ")";
-			titleExtent = gc.stringExtent(title);
-			int y = BORDER + PADDING;
-			y += titleExtent.y;
-			y += PADDING;
-			IVariable[] variables = javaObject.getVariables();
-			if (this.variables != null) {
-				for (int i = this.variables.length - 1; 0 <= i; i--)
-					remove(this.variables[i]);
+		back.setToolTipText("Show the previous machine state");
+		back.setImageDescriptor(images.getImageDescriptor(ISharedImages.IMG_TOOL_BACK));
+		back.setDisabledImageDescriptor(images.getImageDescriptor(ISharedImages.IMG_TOOL_BACK_DISABLED));
+		Action forward = new Action("Forward") {
+			@Override
+			public void run() {
+				canvas.forward();
 			}
-			this.variables = new Variable[variables.length];
-			int localsX = BORDER + PADDING;
-			for (int i = 0; i < variables.length; i++) {
-				if (!(variables[i] instanceof IJavaVariable && ((IJavaVariable)variables[i]).isStatic())) {
-					Variable variable = this.variables[i] = new Variable(this, gc, heap, localsX, y, table, variables[i]);
-					y += variable.height;
-					y += PADDING;
-				}
+		};
+		forward.setToolTipText("Show the next machine state");
+		forward.setImageDescriptor(images.getImageDescriptor(ISharedImages.IMG_TOOL_FORWARD));
+		forward.setDisabledImageDescriptor(images.getImageDescriptor(ISharedImages.IMG_TOOL_FORWARD_DISABLED));
+		IToolBarManager toolBar = getViewSite().getActionBars().getToolBarManager();
+		toolBar.add(back);
+		toolBar.add(forward);
+		Action export = new Action("Export Machine State...") {
+			@Override
+			public void run() {
+				FileDialog dialog = new FileDialog(canvas.getShell(), SWT.SAVE);
+				dialog.setFilterExtensions(new String[] {"*.jvis"});
+				dialog.setOverwrite(true);
+				String fileName = dialog.open();
+				if (fileName != null)
+					canvas.snapshotJob.export(Paths.get(fileName));
 			}
-			y += BORDER;
-			this.height = y;
-			this.width = getWidth();
-			closeButton.x = this.width - BORDER - PADDING - closeButton.width;
-		}
-		
-		@Override
-		void paint(GC gc) {
-			Color oldBackground = gc.getBackground();
-			gc.setBackground(objectColor);
-			gc.fillRoundRectangle(0, 0, this.width, this.height, 10, 10);
-			gc.drawRoundRectangle(0, 0, this.width, this.height, 10, 10);
-			gc.drawString(this.title, BORDER + PADDING, BORDER + PADDING);
-			super.paint(gc);
-			gc.setBackground(oldBackground);
-		}
-	}
-
-
-	class Heap extends Element {
-		
-		static final int PADDING = 10;
-		
-		int nextX = 30;
-		int nextY = MachineStateCanvas.OUTER_MARGIN;
-		
-		HashMap<Long, JavaObject> objects = new HashMap<>();
-		
-		Heap() {
-			super(machine);
-			this.x = 300;
-			this.width = 10000;
-			this.height = 10000;
-		}
-		
-		JavaObject get(GC gc, IJavaObject javaObject) throws DebugException {
-			long id = javaObject.getUniqueId();
-			JavaObject result = objects.get(id);
-			if (result == null) {
-				result = new JavaObject(nextX, nextY, id);
-				result.setState(gc, javaObject);
-				nextY += result.height + PADDING;
-				objects.put(id, result);
-			} else
-				result.setState(gc, javaObject);
-			return result;
-		}
-	}
-	
-	MachineStateCanvas(Composite parent) {
-		super(parent, SWT.DOUBLE_BUFFERED);
-		addPaintListener(this::paint);
-		addMouseMoveListener(new MouseMoveListener() {
-
+		};
+		Action open = new Action("Open Machine State...") {
 			@Override
-			public void mouseMove(MouseEvent e) {
-				if (stack != null)
-					machine.handleMouseEvent(MouseEventType.MOVED, e);
+			public void run() {
+				FileDialog dialog = new FileDialog(canvas.getShell(), SWT.OPEN);
+				dialog.setFilterExtensions(new String[] {"*.jvis"});
+				String fileName = dialog.open();
+				if (fileName == null)
+					return;
+				SnapshotFile file;
+				try {
+					file = new SnapshotFile(Paths.get(fileName));
+				} catch (IOException e) {
+					MessageDialog.openError(canvas.getShell(), "Open Machine State", e.getMessage());
+					return;
+				}
+				canvas.replay(file);
 			}
-			
-		});
-		addMouseListener(new MouseListener() {
-
+		};
+		Action close = new Action("Show Debug Target") {
 			@Override
-			public void mouseDoubleClick(MouseEvent e) {
-				if (stack != null)
-					machine.handleMouseEvent(MouseEventType.DOUBLE_CLICKED, e);
+			public void run() {
+				canvas.replay(null);
 			}
-
+		};
+		Action zoomIn = new Action("Zoom In") {
 			@Override
-			public void mouseDown(MouseEvent e) {
-				if (stack != null)
-					machine.handleMouseEvent(MouseEventType.DOWN, e);
+			public void run() {
+				canvas.zoomTo(canvas.zoomLevel + 1);
 			}
-
+		};
+		Action zoomOut = new Action("Zoom Out") {
 			@Override
-			public void mouseUp(MouseEvent e) {
-				if (stack != null)
-					machine.handleMouseEvent(MouseEventType.UP, e);
+			public void run() {
+				canvas.zoomTo(canvas.zoomLevel - 1);
 			}
-			
-		});
-		FontDescriptor boldDescriptor = FontDescriptor.createFrom(getFont()).setStyle(SWT.BOLD);
-		boldFont = boldDescriptor.createFont(getDisplay());
-		objectColor = new Color(getDisplay(), 255, 204, 203);
-		addDisposeListener(event -> {
-			boldFont.dispose();
-			objectColor.dispose();
-		});
-	}
-	
-	Element canvas = new Element(null);
-
-	void paint(PaintEvent event) {
-		GC gc = event.gc;
-		IDebugTarget[] targets = DebugPlugin.getDefault().getLaunchManager().getDebugTargets();
-		int y = 0;
-		if (targets.length > 0) {
-			try {
-				IThread[] threads = targets[0].getThreads();
-				if (threads.length > 0) {
-					if (targets.length > 1) {
-						String message = "Multiple debug targets exist. Showing target " + targets[0].getName() + ".";
-						event.gc.drawString(message, 1, y + 1);
-						y += 1 + gc.stringExtent(message).y + 1;
-					}
-					List<IThread> userThreads = Arrays.stream(threads).filter(t -> {
-						try {
-							return !(t instanceof IJavaThread && ((IJavaThread)t).isSystemThread());
-						} catch (DebugException e) {
-							e.printStackTrace();
-							return false;
-						}
-					}).collect(Collectors.toList());
-					if (userThreads.size() > 1) {
-						String message = "Target has multiple threads. Showing thread " + userThreads.get(0).getName() + ". Ignoring threads ";
-						for (int i = 1; i < userThreads.size(); i++) {
-							if (1 < i)
-								message += ", ";
-							message += userThreads.get(i).getName();
-						}
-						message += ".";
-						event.gc.drawString(message, 1, y + 1);
-						y += 1 + gc.stringExtent(message).y + 1;
-					}
-					IStackFrame[] frames = threads[0].getStackFrames();
-					if (frames.length > 0) {
-						if (heap == null) {
-							machine = new Element(canvas);
-							heap = new Heap();
-						}
-						machine.y = y;
-						delayedInitializers = new ArrayList<>();
-						if (stack != null)
-							machine.remove(stack);
-						new CallStack(gc, heap, frames);
-						heap.x = stack.width;
-						while (!delayedInitializers.isEmpty()) {
-							List<Runnable> oldDelayedInitializers = delayedInitializers;
-							delayedInitializers = new ArrayList<>();
-							for (Runnable r : oldDelayedInitializers)
-								r.run();
-						}
-						delayedInitializers = null;
-					}
-				}
-			} catch (DebugException e) {
-				throw new RuntimeException(e);
+		};
+		Action actualSize = new Action("Actual Size") {
+			@Override
+			public void run() {
+				canvas.zoomTo(0);
 			}
-			if (stack != null) {
-				arrows = new ArrayList<>();
-				canvas.paint(gc);
-				for (Arrow arrow : arrows)
-					arrow.paint(gc);
-				arrows = null;
+		};
+		Action showMetrics = new Action("Show Performance Metrics", IAction.AS_CHECK_BOX) {
+			@Override
+			public void run() {
+				canvas.setOverlayShown(isChecked());
 			}
-		} else {
-			if (machine != null)
-				canvas.remove(machine);
-			machine = null;
-			heap = null;
-			stack = null;
-			event.gc.drawString("No program running.", 1, 1);
-		}
-	}
-}
-
-public class MachineStateView extends ViewPart {
-
-	public MachineStateView() {
-	}
-
-	public void createPartControl(Composite parent) {
-		MachineStateCanvas canvas = new MachineStateCanvas(parent);
-		Display display = canvas.getDisplay();
-		IDebugEventSetListener debugListener = events -> {
-			display.asyncExec(() -> {
-				if (!canvas.isDisposed())
-					canvas.redraw();
-			});
 		};
-		DebugPlugin.getDefault().addDebugEventListener(debugListener);
-		canvas.addDisposeListener(event -> {
-			DebugPlugin.getDefault().removeDebugEventListener(debugListener);
-		});
+		showMetrics.setToolTipText("Show how long each phase of the last refresh took, and how much work it did");
+		IMenuManager menu = getViewSite().getActionBars().getMenuManager();
+		menu.add(zoomIn);
+		menu.add(zoomOut);
+		menu.add(actualSize);
+		menu.add(new Separator());
+		menu.add(showMetrics);
+		menu.add(new Separator());
+		menu.add(export);
+		menu.add(open);
+		menu.add(close);
+		canvas.historyListener = () -> {
+			back.setEnabled(canvas.history.canGoBack());
+			forward.setEnabled(canvas.history.canGoForward());
+			DebugValueSource source = canvas.snapshotJob.source;
+			close.setEnabled(source instanceof SnapshotFile);
+			String description = source instanceof SnapshotFile ? "Replaying " + ((SnapshotFile)source).path.getFileName() : "";
+			int stepsBack = canvas.history.stepsBack();
+			if (stepsBack > 0)
+				description += (description.isEmpty() ? "" : "; ") + "Showing the machine state of " + stepsBack + (stepsBack == 1 ? " step" : " steps") + " ago; it cannot be expanded";
+			setContentDescription(description);
+		};
+		canvas.historyListener.run();
 	}
 
 	public void setFocus() {
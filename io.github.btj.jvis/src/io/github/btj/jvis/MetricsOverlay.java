@@ -0,0 +1,76 @@
+package io.github.btj.jvis;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Shows the duration and counts of the most recent run of each {@link Metrics.Phase} in the top right corner of
+ * a {@link MachineStateCanvas}, on top of its tiles. Keeps the metrics enabled while it is registered.
+ */
+class MetricsOverlay implements Metrics.Listener {
+
+	static final int MARGIN = 4;
+
+	final MachineStateCanvas canvas;
+	/** The line of each phase, by ordinal, or {@code null} if it has not run yet. Guarded by itself. */
+	final String[] lines = new String[Metrics.Phase.values().length];
+	final AtomicBoolean redrawPending = new AtomicBoolean();
+
+	MetricsOverlay(MachineStateCanvas canvas) {
+		this.canvas = canvas;
+	}
+
+	/** Asks the canvas to show the new line, except after a paint, which would then repaint forever. */
+	@Override
+	public void phaseEnded(Metrics.Phase phase, long nanos, long[] counts) {
+		String line = Metrics.format(phase, nanos, counts);
+		synchronized (lines) {
+			lines[phase.ordinal()] = line;
+		}
+		if (phase != Metrics.Phase.PAINT && redrawPending.compareAndSet(false, true)) {
+			canvas.getDisplay().asyncExec(() -> {
+				redrawPending.set(false);
+				if (!canvas.isDisposed())
+					canvas.redrawOverlay();
+			});
+		}
+	}
+
+	void paint(GC gc) {
+		String[] lines;
+		synchronized (this.lines) {
+			lines = this.lines.clone();
+		}
+		int width = 0;
+		int height = 0;
+		Point[] extents = new Point[lines.length];
+		for (int i = 0; i < lines.length; i++) {
+			if (lines[i] == null)
+				continue;
+			extents[i] = gc.stringExtent(lines[i]);
+			width = Math.max(width, extents[i].x);
+			height += extents[i].y;
+		}
+		if (height == 0)
+			return;
+		Rectangle area = canvas.getClientArea();
+		int x = area.x + area.width - MARGIN - width - 2 * MARGIN;
+		int y = area.y + MARGIN;
+		gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_INFO_BACKGROUND));
+		gc.setForeground(gc.getDevice().getSystemColor(SWT.COLOR_INFO_FOREGROUND));
+		gc.fillRectangle(x, y, width + 2 * MARGIN, height + 2 * MARGIN);
+		gc.drawRectangle(x, y, width + 2 * MARGIN, height + 2 * MARGIN);
+		y += MARGIN;
+		for (int i = 0; i < lines.length; i++) {
+			if (lines[i] == null)
+				continue;
+			gc.drawString(lines[i], x + MARGIN, y, true);
+			y += extents[i].y;
+		}
+	}
+
+}
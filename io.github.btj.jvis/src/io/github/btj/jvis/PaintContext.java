@@ -0,0 +1,69 @@
+package io.github.btj.jvis;
+
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Device;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Transform;
+
+/**
+ * Carries the state of one paint pass down the element tree. The clipping rectangle is kept in
+ * the coordinates of the element being painted, so that elements can skip children that lie
+ * outside of it.
+ *
+ * <p>A canvas keeps one context and reuses it for every paint pass, together with its transform,
+ * so that painting does not allocate. Elements must change the background through
+ * {@link #setBackground(Color)}, so that it can be restored without asking the GC, which
+ * allocates a new color every time.
+ */
+class PaintContext {
+
+	GC gc;
+	final Transform transform;
+	int clipX, clipY, clipWidth, clipHeight;
+	Color background;
+	/** How much of each element to paint; one of the {@code DETAIL_} constants of {@link ElementPainter}. */
+	int detail = ElementPainter.DETAIL_FULL;
+
+	PaintContext(Device device) {
+		transform = new Transform(device);
+	}
+
+	/** Starts a paint pass on the given GC, whose background is the given color. */
+	void begin(GC gc, Color background, int clipX, int clipY, int clipWidth, int clipHeight) {
+		this.gc = gc;
+		this.background = background;
+		this.clipX = clipX;
+		this.clipY = clipY;
+		this.clipWidth = clipWidth;
+		this.clipHeight = clipHeight;
+		gc.getTransform(transform);
+	}
+
+	void end() {
+		gc = null;
+		background = null;
+	}
+
+	void dispose() {
+		transform.dispose();
+	}
+
+	/** Moves the origin to the given point. */
+	void translate(int dx, int dy) {
+		clipX -= dx;
+		clipY -= dy;
+		transform.translate(dx, dy);
+		gc.setTransform(transform);
+	}
+
+	void setBackground(Color color) {
+		background = color;
+		gc.setBackground(color);
+	}
+
+	/** Includes the right and bottom edges, on which borders are drawn. */
+	boolean intersects(int x, int y, int width, int height) {
+		return x <= clipX + clipWidth && clipX <= x + width && y <= clipY + clipHeight && clipY <= y + height;
+	}
+
+}
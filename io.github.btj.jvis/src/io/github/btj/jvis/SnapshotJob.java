@@ -0,0 +1,194 @@
+package io.github.btj.jvis;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.debug.core.DebugEvent;
+import org.eclipse.debug.core.DebugPlugin;
+import org.eclipse.debug.core.IDebugEventSetListener;
+import org.eclipse.debug.core.model.IDebugTarget;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Builds a {@link Snapshot} in the background and hands it to the canvas on the UI thread.
+ * Refresh requests are coalesced: at most one refresh is pending at any time, and two runs
+ * start at least {@link Settings#refreshInterval} milliseconds apart.
+ */
+class SnapshotJob extends Job {
+
+	final MachineStateCanvas canvas;
+	final Display display;
+	final AtomicBoolean refreshPending = new AtomicBoolean();
+	/** Whether the target suspended, or the source changed, since the last run started; only then does a run start a new step. */
+	final AtomicBoolean suspendPending = new AtomicBoolean();
+	final SnapshotContext context = new SnapshotContext();
+	final JdtValueSource debugSource = new JdtValueSource();
+	/** The debug model, or a {@link SnapshotFile} being replayed. */
+	volatile DebugValueSource source = debugSource;
+	final ConcurrentLinkedQueue<Long> pendingExpansions = new ConcurrentLinkedQueue<>();
+	final Job expandJob = Job.create("Expanding objects", this::runExpansions);
+	/** Forgets the ids of a target once it terminates, even while it is still the one shown. */
+	final IDebugEventSetListener terminationListener = events -> {
+		for (DebugEvent event : events)
+			if (event.getKind() == DebugEvent.TERMINATE && event.getSource() instanceof IDebugTarget && event.getSource() == context.target)
+				context.clear();
+	};
+	volatile long lastRunStart;
+
+	SnapshotJob(MachineStateCanvas canvas) {
+		super("Reading machine state");
+		this.canvas = canvas;
+		this.display = canvas.getDisplay();
+		setSystem(true);
+		expandJob.setSystem(true);
+		DebugPlugin.getDefault().addDebugEventListener(debugSource);
+		DebugPlugin.getDefault().addDebugEventListener(terminationListener);
+	}
+
+	void dispose() {
+		DebugPlugin.getDefault().removeDebugEventListener(debugSource);
+		DebugPlugin.getDefault().removeDebugEventListener(terminationListener);
+		cancel();
+		expandJob.cancel();
+	}
+
+	boolean isReplaying() {
+		return source != debugSource;
+	}
+
+	/**
+	 * Takes the snapshots from the given file from now on, or from the debug model again if {@code null}.
+	 * Called on the UI thread, once the canvas cleared its history; snapshots still being built from the
+	 * old source are dropped.
+	 */
+	void replay(SnapshotFile file) {
+		pendingExpansions.clear();
+		context.clear();
+		source = file == null ? debugSource : file;
+		requestRefresh(true);
+	}
+
+	/** Writes the machine state of the current source to the given file, in the background. */
+	void export(Path path) {
+		DebugValueSource source = this.source;
+		Job.create("Exporting machine state to " + path.getFileName(), monitor -> {
+			try {
+				SnapshotExporter.export(source, path);
+			} catch (DebugReadException e) {
+				return JdtValueSource.getStatus(e);
+			} catch (IOException e) {
+				return new Status(IStatus.ERROR, "io.github.btj.jvis", e.getMessage(), e);
+			}
+			return Status.OK_STATUS;
+		}).schedule();
+	}
+
+	/**
+	 * May be called from any thread. Does nothing if a refresh is already pending, except remember
+	 * whether the target {@code suspended}, as opposed to e.g. a variable being changed.
+	 */
+	void requestRefresh(boolean suspended) {
+		if (suspended)
+			suspendPending.set(true);
+		if (refreshPending.compareAndSet(false, true)) {
+			long sinceLastRun = System.currentTimeMillis() - lastRunStart;
+			schedule(Math.max(0, Settings.refreshInterval - sinceLastRun));
+		}
+	}
+
+	/**
+	 * Reads the given object of the canvas's current snapshot again, e.g. because it is a stub
+	 * the user wants to see. It is added to the expanded ids, so that later snapshots show it
+	 * as well, regardless of the budget.
+	 */
+	void expand(long id) {
+		context.expandedIds.add(id);
+		reread(id);
+	}
+
+	/**
+	 * Reads the given object of the canvas's current snapshot again, e.g. because the user scrolled
+	 * an array, without adding it to the expanded ids.
+	 */
+	void reread(long id) {
+		pendingExpansions.add(id);
+		expandJob.schedule();
+	}
+	
+	IStatus runExpansions(IProgressMonitor monitor) {
+		DebugValueSource source = this.source;
+		Snapshot base = canvas.history.latest;
+		List<Long> ids = new ArrayList<>();
+		for (Long id; (id = pendingExpansions.poll()) != null; )
+			ids.add(id);
+		if (base == null || ids.isEmpty())
+			return Status.OK_STATUS;
+		Snapshot snapshot;
+		Metrics.Timer timer = Metrics.start(Metrics.Phase.EXPANSION);
+		try {
+			snapshot = new SnapshotBuilder(source, context, base).expand(base, ids);
+		} catch (DebugReadException e) {
+			return JdtValueSource.getStatus(e);
+		} finally {
+			Metrics.stop(timer);
+		}
+		if (display.isDisposed())
+			return Status.CANCEL_STATUS;
+		display.asyncExec(() -> {
+			if (canvas.isDisposed() || this.source != source)
+				return;
+			if (canvas.history.latest == base) {
+				// Unless the user went back in the meantime, since the history cannot show expansions of the past
+				if (canvas.history.isAtLatest())
+					canvas.addSnapshot(snapshot);
+			} else {
+				// A newer snapshot arrived in the meantime; expand that one instead
+				pendingExpansions.addAll(ids);
+				expandJob.schedule();
+			}
+		});
+		return Status.OK_STATUS;
+	}
+
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		// Requests that arrive from now on need a new run, since this one may miss their changes
+		refreshPending.set(false);
+		lastRunStart = System.currentTimeMillis();
+		DebugValueSource source = this.source;
+		if (suspendPending.getAndSet(false))
+			context.targetSuspended();
+		debugSource.targetSuspended();
+		Snapshot base = canvas.history.latest;
+		Snapshot snapshot;
+		Metrics.Timer timer = Metrics.start(Metrics.Phase.SNAPSHOT);
+		try {
+			snapshot = new SnapshotBuilder(source, context, base).build();
+		} catch (DebugReadException e) {
+			return JdtValueSource.getStatus(e);
+		} finally {
+			Metrics.stop(timer);
+		}
+		if (monitor.isCanceled() || display.isDisposed())
+			return Status.CANCEL_STATUS;
+		display.asyncExec(() -> {
+			if (canvas.isDisposed() || this.source != source)
+				return;
+			if (snapshot == null || canvas.history.latest == base)
+				canvas.addSnapshot(snapshot);
+			else
+				// An expansion arrived in the meantime, and the objects this snapshot took over from the one it replaced can no longer be read
+				requestRefresh(false);
+		});
+		return Status.OK_STATUS;
+	}
+
+}
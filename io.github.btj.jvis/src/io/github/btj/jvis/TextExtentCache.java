@@ -0,0 +1,68 @@
+package io.github.btj.jvis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.widgets.Control;
+
+/**
+ * A least-recently-used cache of {@link GC#stringExtent(String)} results for the font of a control.
+ * The same field names, type names and values occur over and over again, and measuring text is
+ * one of the most expensive things the layout code does. Only to be used on the UI thread.
+ *
+ * Extents are keyed by text alone, since the control has a single font; {@link #clear()} must be
+ * called when it changes. Misses are counted as {@link Metrics.Counter#TEXT_MEASURED}.
+ *
+ * A GC is only created on a cache miss, and is kept until {@link #releaseGC()}, so that a layout
+ * pass that measures many new strings creates only one.
+ */
+class TextExtentCache implements TextMeasurer {
+
+	final Control control;
+	final int capacity;
+	final LinkedHashMap<String, Extent> extents;
+	GC gc;
+
+	TextExtentCache(Control control, int capacity) {
+		this.control = control;
+		this.capacity = capacity;
+		this.extents = new LinkedHashMap<String, Extent>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Extent> eldest) {
+				return size() > TextExtentCache.this.capacity;
+			}
+		};
+	}
+
+	@Override
+	public Extent stringExtent(String text) {
+		Extent extent = extents.get(text);
+		if (extent == null) {
+			Metrics.count(Metrics.Counter.TEXT_MEASURED);
+			if (gc == null)
+				gc = new GC(control);
+			Point point = gc.stringExtent(text);
+			extent = new Extent(point.x, point.y);
+			extents.put(text, extent);
+		}
+		return extent;
+	}
+
+	void releaseGC() {
+		if (gc != null) {
+			gc.dispose();
+			gc = null;
+		}
+	}
+
+	/** Must be called when the control's font changes. */
+	void clear() {
+		releaseGC();
+		extents.clear();
+	}
+
+}
@@ -0,0 +1,129 @@
+package io.github.btj.jvis;
+
+import java.util.ArrayList;
+
+import org.eclipse.swt.graphics.Device;
+import org.eclipse.swt.graphics.Image;
+
+/**
+ * The scene of a {@link MachineStateCanvas}, rendered into square images of {@link #SIZE} pixels, so that
+ * scrolling and repainting blit images rather than paint elements. Tiles are kept per zoom level, so
+ * that zooming back to a level reuses its tiles.
+ *
+ * A tile is dropped when the model damages an area that overlaps it, and, beyond {@link Settings#tileCacheSize}
+ * tiles, when it was used least recently. Lookups do not allocate.
+ */
+class TileCache {
+
+	static final int SIZE = 256;
+	/** Images of dropped tiles, to render other tiles into. */
+	static final int MAX_SPARE_IMAGES = 8;
+
+	static class Tile {
+		final int level;
+		final int column;
+		final int row;
+		/** The scale of the tile's level. */
+		final double zoom;
+		final Image image;
+		long lastUsed;
+
+		Tile(int level, int column, int row, double zoom, Image image) {
+			this.level = level;
+			this.column = column;
+			this.row = row;
+			this.zoom = zoom;
+			this.image = image;
+		}
+
+		/** Returns whether this tile shows any part of the given rectangle, in the coordinates of the model. */
+		boolean overlaps(int x, int y, int width, int height) {
+			// Rendered pixels may pick up one pixel of an element beyond the tile's edge
+			double left = column * SIZE / zoom - 1;
+			double top = row * SIZE / zoom - 1;
+			double size = SIZE / zoom + 2;
+			return x < left + size && left < x + width && y < top + size && top < y + height;
+		}
+	}
+
+	final Device device;
+	final LongObjectMap<Tile> tiles = new LongObjectMap<>();
+	final ArrayList<Image> spareImages = new ArrayList<>();
+	/** Reused by {@link #invalidate}. */
+	final ArrayList<Tile> dropped = new ArrayList<>();
+	long uses;
+
+	TileCache(Device device) {
+		this.device = device;
+	}
+
+	/** Columns and rows are limited to 2^27, i.e. scenes of 34 billion pixels. */
+	static long key(int level, int column, int row) {
+		return (long)(level & 0xFF) << 56 | (long)(column & 0xFFFFFFF) << 28 | row & 0xFFFFFFF;
+	}
+
+	/** Returns the tile, or {@code null} if it must be rendered. */
+	Tile get(int level, int column, int row) {
+		Tile tile = tiles.get(key(level, column, row));
+		if (tile != null)
+			tile.lastUsed = ++uses;
+		return tile;
+	}
+
+	/** Returns an image to render a new tile into. */
+	Image newImage() {
+		if (!spareImages.isEmpty())
+			return spareImages.remove(spareImages.size() - 1);
+		return new Image(device, SIZE, SIZE);
+	}
+
+	void put(Tile tile) {
+		if (tiles.size() >= Math.max(1, Settings.tileCacheSize))
+			evictLeastRecentlyUsed();
+		tile.lastUsed = ++uses;
+		tiles.put(key(tile.level, tile.column, tile.row), tile);
+	}
+
+	void evictLeastRecentlyUsed() {
+		Tile[] oldest = {null};
+		tiles.forEachValue(tile -> {
+			if (oldest[0] == null || tile.lastUsed < oldest[0].lastUsed)
+				oldest[0] = tile;
+		});
+		drop(oldest[0]);
+	}
+
+	void drop(Tile tile) {
+		tiles.remove(key(tile.level, tile.column, tile.row));
+		if (spareImages.size() < MAX_SPARE_IMAGES)
+			spareImages.add(tile.image);
+		else
+			tile.image.dispose();
+	}
+
+	/** Drops the tiles, of any level, that show part of the given rectangle, in the coordinates of the model. */
+	void invalidate(int x, int y, int width, int height) {
+		tiles.forEachValue(tile -> {
+			if (tile.overlaps(x, y, width, height))
+				dropped.add(tile);
+		});
+		for (int i = 0, n = dropped.size(); i < n; i++)
+			drop(dropped.get(i));
+		dropped.clear();
+	}
+
+	void clear() {
+		tiles.forEachValue(dropped::add);
+		for (int i = 0, n = dropped.size(); i < n; i++)
+			drop(dropped.get(i));
+		dropped.clear();
+	}
+
+	void dispose() {
+		clear();
+		for (Image image : spareImages)
+			image.dispose();
+		spareImages.clear();
+	}
+
+}
@@ -0,0 +1,54 @@
+package io.github.btj.jvis;
+
+import org.eclipse.osgi.service.debug.DebugOptions;
+import org.eclipse.osgi.service.debug.DebugTrace;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * The tracing options of the plug-in, set in its {@code .options} file, e.g. through the Tracing tab of a
+ * launch configuration or by starting Eclipse with {@code -debug}. Options are relative to the plug-in's
+ * symbolic name, as {@link DebugTrace} expects them.
+ */
+class Tracing {
+
+	static final String BUNDLE = "io.github.btj.jvis";
+	static final String DEBUG_OPTION = "/debug";
+	/** Traces the duration and counts of each phase of each refresh, through the platform's {@link DebugTrace}. */
+	static final String METRICS_OPTION = "/debug/metrics";
+	/** Emits each phase as a Java Flight Recorder event; see {@link FlightRecorderEvents}. */
+	static final String FLIGHT_RECORDER_OPTION = "/debug/flightRecorder";
+
+	static boolean initialized;
+
+	/** Registers the {@link Metrics} listeners that the options ask for. Only the first call does anything. */
+	static void init() {
+		if (initialized)
+			return;
+		initialized = true;
+		DebugOptions options = getDebugOptions();
+		if (isEnabled(options, METRICS_OPTION)) {
+			DebugTrace trace = options.newDebugTrace(BUNDLE, Tracing.class);
+			Metrics.addListener((phase, nanos, counts) -> trace.trace(METRICS_OPTION, Metrics.format(phase, nanos, counts)));
+		}
+		if (isEnabled(options, FLIGHT_RECORDER_OPTION) || Settings.flightRecorderEvents)
+			FlightRecorderEvents.register();
+	}
+
+	/** Returns {@code null} if the platform does not offer the service, e.g. outside of OSGi. */
+	static DebugOptions getDebugOptions() {
+		Bundle bundle = FrameworkUtil.getBundle(Tracing.class);
+		BundleContext context = bundle == null ? null : bundle.getBundleContext();
+		if (context == null)
+			return null;
+		ServiceReference<DebugOptions> reference = context.getServiceReference(DebugOptions.class);
+		return reference == null ? null : context.getService(reference);
+	}
+
+	static boolean isEnabled(DebugOptions options, String option) {
+		return options != null && options.isDebugEnabled() && options.getBooleanOption(BUNDLE + DEBUG_OPTION, false) && options.getBooleanOption(BUNDLE + option, false);
+	}
+
+}